@@ -0,0 +1,132 @@
+package Stats;
+
+import java.io.IOException;
+
+/**
+ * Makes the reports of past years again from the command line, without
+ * opening the window:
+ *
+ * java -jar Stats.jar --backfill file.csv rules.txt 2005 2014 1,2,3,4,5
+ *
+ * java -jar Stats.jar --backfill file.csv rules.txt --months 201307 201406
+ *
+ * The CSV file, or directory of them, and the rule file are given as they
+ * would be in the window. Every quarter listed, or 5 for the whole year, is
+ * generated for every year in the range in one pass over the files, as
+ * Model.backfillReports() does, and the reports are written to the working
+ * directory. All of the quarters and the year are generated if none are
+ * listed. With --months, the reports are generated for the one run of
+ * months instead, such as the trailing twelve months or a fiscal year, as
+ * Model.generateReportsForMonths() does.
+ *
+ * @author Christopher Buss
+ */
+public class Backfill {
+
+    // The first argument that asks for a backfill.
+    static final String OPTION = "--backfill";
+    // Asks for a run of months instead of a range of years.
+    private static final String MONTHS = "--months";
+
+    private static final String USAGE = "Usage: java -jar Stats.jar " + OPTION
+            + " <CSV file or directory> <rule file> <first year> <last year> [quarters]\n"
+            + "   or: java -jar Stats.jar " + OPTION
+            + " <CSV file or directory> <rule file> " + MONTHS + " <first month> <last month>\n"
+            + "The quarters are 1 to 4, or 5 for the whole year, such as 1,2,3,4,5.\n"
+            + "The months are yyyymm, such as 201307 201406 for the year to June 2014.";
+
+    private Backfill() {
+    }
+
+    /**
+     * Generates the reports.
+     *
+     * @param args The arguments after OPTION.
+     * @return The exit status: 0 if every report was written.
+     */
+    public static int run(String[] args) {
+        if (args.length < 4 || args.length > 5) {
+            System.err.println(USAGE);
+            return 1;
+        }
+
+        boolean months = args.length == 5 && args[2].equals(MONTHS);
+        int first;
+        int last;
+        int[] quarters = {1, 2, 3, 4, 5};
+        try {
+            if (months) {
+                first = parseMonth(args[3]);
+                last = parseMonth(args[4]);
+            } else {
+                first = Integer.parseInt(args[2].trim());
+                last = Integer.parseInt(args[3].trim());
+            }
+            if (args.length == 5 && !months) {
+                String[] values = args[4].split(",");
+                quarters = new int[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    quarters[i] = Integer.parseInt(values[i].trim());
+                    if (quarters[i] < 1 || quarters[i] > 5) {
+                        throw new NumberFormatException("Not a quarter: " + quarters[i]);
+                    }
+                }
+            }
+        } catch (NumberFormatException ex) {
+            System.err.println(USAGE);
+            return 1;
+        }
+        if (last < first) {
+            System.err.println(months ? "The last month is before the first month."
+                    : "The last year is before the first year.");
+            return 1;
+        }
+
+        // Nothing is imported, so the reports are tallied straight from the
+        // files.
+        Model model = Model.getInstance();
+        if (model.getConfigurationError() != null) {
+            System.err.println(model.getConfigurationError());
+        }
+        model.setcsvFileLocation(args[0]);
+        model.setRuleFileLocation(args[1]);
+        ReportProgress progress = new ReportProgress();
+        try {
+            model.importRuleDataFromFile();
+            if (months) {
+                model.generateReportsForMonths(first, last, progress);
+            } else {
+                model.backfillReports(first, last, quarters, progress);
+            }
+        } catch (IOException ex) {
+            System.err.println("The reports could not be generated: " + ex.getMessage());
+            if (progress.getReportCount() > 0) {
+                System.err.println(progress.getReportsDone() + " of "
+                        + progress.getReportCount() + " reports were generated.");
+            }
+            return 1;
+        }
+
+        ImportDiagnostics diagnostics = model.getImportDiagnostics();
+        if (diagnostics != null && diagnostics.hasErrors()) {
+            System.err.print(diagnostics.getSummary());
+        }
+        System.out.println(progress.getReportsDone() + " reports were generated.");
+        return 0;
+    }
+
+    /**
+     * Reads a month written as yyyymm.
+     *
+     * @param str The month.
+     * @return The month, packed as yyyymm.
+     * @throws NumberFormatException If it is not a month.
+     */
+    private static int parseMonth(String str) {
+        int month = Integer.parseInt(str.trim());
+        if (month < 100 || month % 100 < 1 || month % 100 > 12) {
+            throw new NumberFormatException("Not a month: " + str);
+        }
+        return month;
+    }
+}
@@ -0,0 +1,183 @@
+package Stats;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * A named way of splitting sales into ranges of one numeric column: the sold
+ * price, the list price or the days on market. The ranges are given by their
+ * lower bounds in ascending order. Range i holds the values from bound i up
+ * to but not including bound i + 1, and the last range has no top. A value
+ * is put in its range by a binary search of the bounds, so a scheme can have
+ * as many ranges as a market needs.
+ *
+ * Schemes are written as the column, a colon and the bounds, such as
+ * "Sold Price: 0, 60000, 100000". Prices are in whole dollars.
+ *
+ * @author Christopher Buss
+ */
+public class BucketScheme {
+
+    // The columns a scheme can split on.
+    public static final int SOLD_PRICE = 0;
+    public static final int LIST_PRICE = 1;
+    public static final int DAYS_ON_MARKET = 2;
+    public static final int NUM_OF_COLUMNS = 3;
+
+    private static final String[] COLUMN_NAMES = {
+        "Sold Price", "List Price", "Days on Market"
+    };
+
+    // The ranges the reports have always had.
+    private static final BucketScheme DEFAULT = parse("Default",
+            "Sold Price: 0, 60000, 100000, 150000, 200000, 250000, 300000,"
+            + " 400000, 500000, 750000, 1000000");
+
+    private final String name;
+    private final int column;
+    // The lower bound of each range, in cents for prices.
+    private final long[] bounds;
+
+    /**
+     * Creates a scheme.
+     *
+     * @param name The name of the scheme.
+     * @param column The column to split on, such as SOLD_PRICE.
+     * @param bounds The lower bound of each range in ascending order, in
+     * cents for prices. There must be at least one.
+     */
+    public BucketScheme(String name, int column, long[] bounds) {
+        if (bounds.length == 0) {
+            throw new IllegalArgumentException("Bucket scheme " + name + " has no ranges.");
+        }
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("The ranges of bucket scheme "
+                        + name + " are not in ascending order.");
+            }
+        }
+        this.name = name;
+        this.column = column;
+        this.bounds = bounds.clone();
+    }
+
+    /**
+     * Reads a scheme written as the column, a colon and the bounds.
+     *
+     * @param name The name of the scheme.
+     * @param text The scheme, such as "Sold Price: 0, 60000, 100000".
+     * @return The scheme.
+     */
+    public static BucketScheme parse(String name, String text) {
+        int colon = text.indexOf(':');
+        int column = colon == -1 ? -1
+                : Arrays.asList(COLUMN_NAMES).indexOf(text.substring(0, colon).trim());
+        if (column == -1) {
+            throw new IllegalArgumentException("Bucket scheme " + name
+                    + " must start with one of " + Arrays.toString(COLUMN_NAMES) + ".");
+        }
+
+        String[] values = text.substring(colon + 1).split(",");
+        long[] bounds = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            long bound = NumberParser.parseLong(values[i].trim());
+            if (bound == NumberParser.INVALID) {
+                throw new IllegalArgumentException("Bucket scheme " + name
+                        + " has a range that is not a whole number: " + values[i].trim());
+            }
+            bounds[i] = column == DAYS_ON_MARKET ? bound : bound * 100;
+        }
+        return new BucketScheme(name, column, bounds);
+    }
+
+    /**
+     * Returns the scheme of the price ranges the reports have always had.
+     *
+     * @return The scheme, named Default.
+     */
+    public static BucketScheme getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Makes a scheme whose ranges are split at every bound of the given
+     * schemes, so that every range of each of them is made of whole ranges
+     * of the result.
+     *
+     * @param column The column the schemes split on.
+     * @param schemes The schemes. Those on other columns are left out.
+     * @return The scheme, or null if none of the schemes split the column.
+     */
+    public static BucketScheme merge(int column, Iterable<BucketScheme> schemes) {
+        TreeSet<Long> bounds = new TreeSet<>();
+        for (BucketScheme scheme : schemes) {
+            if (scheme.column == column) {
+                for (long bound : scheme.bounds) {
+                    bounds.add(bound);
+                }
+            }
+        }
+        if (bounds.isEmpty()) {
+            return null;
+        }
+        long[] merged = new long[bounds.size()];
+        int i = 0;
+        for (long bound : bounds) {
+            merged[i++] = bound;
+        }
+        return new BucketScheme(COLUMN_NAMES[column], column, merged);
+    }
+
+    /**
+     * Finds the range a value falls in.
+     *
+     * @param value The value, in cents for prices. Negative values are
+     * missing.
+     * @return The range, or -1 if the value is missing or below the first
+     * range.
+     */
+    public int getBucket(long value) {
+        if (value < 0) {
+            return -1;
+        }
+        int i = Arrays.binarySearch(bounds, value);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * Returns the lower bound of a range.
+     *
+     * @param bucket The range.
+     * @return The bound, in cents for prices.
+     */
+    public long getBound(int bucket) {
+        return bounds[bucket];
+    }
+
+    public int getBucketCount() {
+        return bounds.length;
+    }
+
+    /**
+     * Returns the label of a range for the reports, such as 60000-99999 or
+     * 1000000+ for the last.
+     *
+     * @param bucket The range.
+     * @return The label, in whole dollars for prices.
+     */
+    public String getLabel(int bucket) {
+        long scale = column == DAYS_ON_MARKET ? 1 : 100;
+        if (bucket == bounds.length - 1) {
+            return bounds[bucket] / scale + "+";
+        }
+        return bounds[bucket] / scale + "-" + (bounds[bucket + 1] / scale - 1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+}
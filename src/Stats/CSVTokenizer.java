@@ -0,0 +1,382 @@
+package Stats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Splits a CSV stream into records in a single pass. The tokenizer is a small
+ * state machine that follows RFC 4180: fields may be wrapped in double quotes,
+ * a doubled quote inside a quoted field stands for one quote, and quoted
+ * fields may contain commas and line breaks. The surrounding quotes are
+ * removed from the returned fields so callers never have to strip them.
+ *
+ * The stream is scanned as bytes. Every delimiter in a CSV file is plain
+ * ASCII, so this works for UTF-8 as well as the single byte encodings that
+ * MLS exports come in; only the fields are decoded into Strings.
+ *
+ * @author Christopher Buss
+ */
+public class CSVTokenizer {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final Charset charset;
+    // Raw bytes read from the stream. The bytes of the current record are
+    // always kept in the buffer so that the record can be handed back as text.
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private int recordStart;
+    private int recordLength;
+    // Number of bytes that were shifted out of the front of buf.
+    private long discarded;
+    private boolean endOfStream;
+    // Holds the unquoted bytes of the field being read.
+    private byte[] field = new byte[256];
+    private int fieldLength;
+    private final ArrayList<String> fields = new ArrayList<>();
+    private int fieldCount;
+    // The columns to return, if not all of them, and where each one goes.
+    private int[] columns;
+    private int[][] slots;
+
+    /**
+     * Creates a tokenizer that decodes fields with the platform's default
+     * charset, the same one FileReader uses.
+     *
+     * @param in The stream to read records from.
+     */
+    public CSVTokenizer(InputStream in) {
+        this(in, Charset.defaultCharset());
+    }
+
+    /**
+     * Creates a tokenizer that decodes fields with the given charset.
+     *
+     * @param in The stream to read records from.
+     * @param charset The charset of the stream.
+     */
+    public CSVTokenizer(InputStream in, Charset charset) {
+        this.in = in;
+        this.charset = charset;
+    }
+
+    /**
+     * Restricts the tokenizer to the given columns. Afterwards nextRecord()
+     * returns an array with one entry per element of columns, in the same
+     * order, and every other field is skipped over without ever being turned
+     * into a String. A column may be listed more than once.
+     *
+     * @param columns The zero-based source columns to keep, or null to keep
+     * every field.
+     */
+    public void setColumns(int[] columns) {
+        this.columns = columns;
+        if (columns == null) {
+            slots = null;
+            return;
+        }
+
+        int max = -1;
+        for (int column : columns) {
+            max = Math.max(max, column);
+        }
+
+        // slots[column] lists the positions in the returned array that the
+        // column is copied to.
+        slots = new int[max + 1][];
+        for (int i = 0; i < columns.length; i++) {
+            int[] old = slots[columns[i]];
+            int[] grown = old == null ? new int[1] : Arrays.copyOf(old, old.length + 1);
+            grown[grown.length - 1] = i;
+            slots[columns[i]] = grown;
+        }
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return The unquoted fields of the record, or null at the end of the
+     * stream. If columns were set with setColumns(), only those fields are
+     * returned and any that the record is too short to have are null.
+     * @throws IOException
+     */
+    public String[] nextRecord() throws IOException {
+
+        recordStart = pos;
+        if (peek() == -1) {
+            return null;
+        }
+
+        String[] record = null;
+        if (columns == null) {
+            fields.clear();
+        } else {
+            record = new String[columns.length];
+        }
+
+        int c;
+        fieldCount = 0;
+        do {
+            int[] fieldSlots = null;
+            boolean keep = columns == null;
+            if (!keep && fieldCount < slots.length) {
+                fieldSlots = slots[fieldCount];
+                keep = fieldSlots != null;
+            }
+
+            c = keep ? readField() : skipField();
+            fieldCount++;
+
+            if (keep) {
+                String str = new String(field, 0, fieldLength, charset);
+                if (columns == null) {
+                    fields.add(str);
+                } else {
+                    for (int slot : fieldSlots) {
+                        record[slot] = str;
+                    }
+                }
+            }
+        } while (c == ',');
+
+        recordLength = pos - recordStart - (c == -1 ? 0 : 1);
+        if (c == '\r' && peek() == '\n') {
+            read();
+        }
+
+        if (columns == null) {
+            return fields.toArray(new String[fields.size()]);
+        }
+        return record;
+    }
+
+    /**
+     * Returns how many fields the record last returned by nextRecord() had
+     * in the stream, including the ones that were skipped.
+     *
+     * @return The number of fields in the current record.
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Returns the record last returned by nextRecord() exactly as it appeared
+     * in the stream, without its line break. Useful for error messages.
+     *
+     * @return The raw text of the current record.
+     */
+    public String getRecordText() {
+        return new String(buf, recordStart, recordLength, charset);
+    }
+
+    /**
+     * Returns the number of bytes consumed from the stream so far. Right
+     * after nextRecord() returns, this is the offset of the next record.
+     *
+     * @return The byte offset of the tokenizer in the stream.
+     */
+    public long getPosition() {
+        return discarded + pos;
+    }
+
+    /**
+     * Closes the underlying stream.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Splits a single line that is already in memory into its unquoted fields
+     * using the same rules as nextRecord().
+     *
+     * @param line The line to split.
+     * @return The fields of the line.
+     */
+    public static String[] split(String line) {
+        ArrayList<String> result = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        int length = line.length();
+        int i = 0;
+        while (true) {
+            sb.setLength(0);
+            if (i < length && line.charAt(i) == '"') {
+                i++;
+                while (i < length) {
+                    char ch = line.charAt(i++);
+                    if (ch == '"') {
+                        if (i < length && line.charAt(i) == '"') {
+                            i++;
+                        } else {
+                            break;
+                        }
+                    }
+                    sb.append(ch);
+                }
+            }
+            while (i < length && line.charAt(i) != ',') {
+                sb.append(line.charAt(i++));
+            }
+            result.add(sb.toString());
+            if (i >= length) {
+                break;
+            }
+            i++;
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Quotes the given field if it would otherwise not survive being written
+     * to and read back from a CSV line.
+     *
+     * @param str The field to quote.
+     * @return The field, quoted if necessary.
+     */
+    public static String quote(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            char ch = str.charAt(i);
+            if (ch == ',' || ch == '"' || ch == '\n' || ch == '\r') {
+                return "\"" + str.replace("\"", "\"\"") + "\"";
+            }
+        }
+        return str;
+    }
+
+    /**
+     * Reads one field into the field buffer, without its quotes.
+     *
+     * @return The character that ended the field: a comma, a line break or -1
+     * at the end of the stream.
+     */
+    private int readField() throws IOException {
+        fieldLength = 0;
+        int c = read();
+        if (c == '"') {
+            // Quoted field: read until the closing quote. Two quotes in a
+            // row are an escaped quote rather than the end of the field.
+            while (true) {
+                c = read();
+                if (c == -1) {
+                    break;
+                }
+                if (c == '"') {
+                    if (peek() != '"') {
+                        c = read();
+                        break;
+                    }
+                    read();
+                }
+                append(c);
+            }
+        }
+
+        // Unquoted field, or whatever follows a closing quote. Stray quotes in
+        // here are kept as they are.
+        while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+            append(c);
+            c = read();
+        }
+        return c;
+    }
+
+    /**
+     * Moves past one field without copying any of it.
+     *
+     * @return The character that ended the field: a comma, a line break or -1
+     * at the end of the stream.
+     */
+    private int skipField() throws IOException {
+        int c = read();
+        if (c == '"') {
+            // An escaped quote is just two quoted sections back to back, so
+            // it does not need any special handling when skipping.
+            do {
+                c = read();
+            } while (c != '"' && c != -1);
+            c = read();
+            while (c == '"') {
+                do {
+                    c = read();
+                } while (c != '"' && c != -1);
+                c = read();
+            }
+        }
+        while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+            c = read();
+        }
+        return c;
+    }
+
+    /**
+     * Appends a byte to the field being read.
+     */
+    private void append(int c) {
+        if (fieldLength == field.length) {
+            byte[] grown = new byte[field.length * 2];
+            System.arraycopy(field, 0, grown, 0, fieldLength);
+            field = grown;
+        }
+        field[fieldLength++] = (byte) c;
+    }
+
+    /**
+     * Returns the next byte without consuming it, or -1 at the end of the
+     * stream.
+     */
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos] & 0xff;
+    }
+
+    /**
+     * Consumes the next byte, or returns -1 at the end of the stream.
+     */
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    /**
+     * Reads more bytes into the buffer, first moving the current record to the
+     * front of it. The buffer grows if a single record does not fit.
+     *
+     * @return False if the end of the stream was reached.
+     */
+    private boolean fill() throws IOException {
+        if (endOfStream) {
+            return false;
+        }
+        if (recordStart > 0) {
+            System.arraycopy(buf, recordStart, buf, 0, limit - recordStart);
+            discarded += recordStart;
+            pos -= recordStart;
+            limit -= recordStart;
+            recordStart = 0;
+        }
+        if (limit == buf.length) {
+            byte[] grown = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, grown, 0, limit);
+            buf = grown;
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n <= 0) {
+            endOfStream = n < 0;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+}
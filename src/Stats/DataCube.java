@@ -0,0 +1,439 @@
+package Stats;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The imported sales added up ahead of time. Every distinct combination of
+ * the month a sale was made in, its six "where" values and its ranges is a
+ * cell, holding the number of sales, the sides COMPANY had in them and the
+ * money they made. Reports only ever need those totals, so they are rolled
+ * up from the cells instead of from the sales, and the number of cells
+ * depends on how varied the sales are rather than on how many there are.
+ *
+ * The ranges of a column are split at the bounds of every BucketScheme on
+ * it, so that each range of each scheme is made of whole ranges of the
+ * cube, and getBucketMap() tells which.
+ *
+ * The cube is kept up to date during the import: the Model adds the rows of
+ * every batch as it is merged into the Dataset. The "where" values are
+ * stored as the Dataset's dictionary codes. Once sort() has been called the
+ * cells are ordered by month like the rows of a Dataset, and getIndex()
+ * returns the cells holding any one "where" value.
+ *
+ * @author Christopher Buss
+ */
+public class DataCube {
+
+    private final Dataset dataset;
+    private final String company;
+    // Whether each agency code seen so far is COMPANY.
+    private boolean[] listedByCompany = new boolean[0];
+    private boolean[] soldByCompany = new boolean[0];
+
+    // The key of each cell.
+    private int size;
+    private int[] months = new int[0];
+    private int[][] categories = new int[Model.NUM_OF_OPTIONS][0];
+    // The range of each column, indexed by BucketScheme column and then
+    // cell. Columns no scheme splits on are left at 0.
+    private int[][] ranges = new int[BucketScheme.NUM_OF_COLUMNS][0];
+    // The totals of each cell.
+    private long[] counts = new long[0];
+    private long[] sides = new long[0];
+    private long[] cash = new long[0];
+
+    // Open addressing table of the cells, each stored as its number plus
+    // one so that 0 marks an empty slot. Its length is a power of two and
+    // it is never more than half full.
+    private int[] table = new int[16];
+    // The key being looked up, in the order of cellKey().
+    private final int[] key = new int[1 + Model.NUM_OF_OPTIONS + BucketScheme.NUM_OF_COLUMNS];
+    // The ranges of each column, or null if no scheme splits on it.
+    private final BucketScheme[] partitions = new BucketScheme[BucketScheme.NUM_OF_COLUMNS];
+
+    // The distinct months in ascending order, as in Dataset.
+    private int[] monthKeys = new int[0];
+    private int[] monthStarts = {0};
+    // The cells holding each value of the "where"s, indexed by "where" and
+    // then code.
+    private RowBitmap[][] indexes = new RowBitmap[Model.NUM_OF_OPTIONS][0];
+    private boolean sorted = true;
+
+    /**
+     * Creates an empty cube.
+     *
+     * @param dataset The Dataset whose rows will be added.
+     * @param company The name that marks an agency as COMPANY.
+     * @param schemes The schemes the reports may use.
+     */
+    public DataCube(Dataset dataset, String company, Collection<BucketScheme> schemes) {
+        this.dataset = dataset;
+        this.company = company;
+        for (int column = 0; column < BucketScheme.NUM_OF_COLUMNS; column++) {
+            partitions[column] = BucketScheme.merge(column, schemes);
+        }
+    }
+
+    /**
+     * Adds rows of the Dataset to the cells they belong to.
+     *
+     * @param from The first row to add.
+     * @param to The row after the last row to add.
+     */
+    public void add(int from, int to) {
+        int[] rowMonths = dataset.getMonths();
+        int[][] rowCategories = new int[Model.NUM_OF_OPTIONS][];
+        for (int where = 0; where < Model.NUM_OF_OPTIONS; where++) {
+            rowCategories[where] = dataset.getCategory(where);
+        }
+        int[] listingAgencies = dataset.getCategory(Dataset.LISTING_AGENCY);
+        int[] sellingAgencies = dataset.getCategory(Dataset.SELLING_AGENCY);
+        long[] soldPrices = dataset.getSoldPrices();
+        long[] listPrices = dataset.getListPrices();
+        int[] days = dataset.getDaysOnMarket();
+        updateCompanyAgencies();
+
+        for (int row = from; row < to; row++) {
+            key[0] = rowMonths[row];
+            for (int where = 0; where < Model.NUM_OF_OPTIONS; where++) {
+                key[where + 1] = rowCategories[where][row];
+            }
+            key[Model.NUM_OF_OPTIONS + 1 + BucketScheme.SOLD_PRICE] =
+                    getRange(BucketScheme.SOLD_PRICE, soldPrices[row]);
+            key[Model.NUM_OF_OPTIONS + 1 + BucketScheme.LIST_PRICE] =
+                    getRange(BucketScheme.LIST_PRICE, listPrices[row]);
+            key[Model.NUM_OF_OPTIONS + 1 + BucketScheme.DAYS_ON_MARKET] =
+                    getRange(BucketScheme.DAYS_ON_MARKET, days[row]);
+
+            int cell = findOrAddCell();
+            counts[cell]++;
+            if (listedByCompany[listingAgencies[row]]) {
+                sides[cell]++;
+            }
+            if (soldByCompany[sellingAgencies[row]]) {
+                sides[cell]++;
+            }
+            cash[cell] += soldPrices[row] / 100;
+        }
+        sorted = sorted && from == to;
+    }
+
+    /**
+     * Orders the cells by month and rebuilds the month index and the index
+     * of each "where". Must be called after adding rows and before reading
+     * the cells.
+     */
+    public void sort() {
+        if (sorted) {
+            return;
+        }
+
+        // Cells are few next to rows, so a comparison sort of the month and
+        // cell number packed together is fine.
+        long[] order = new long[size];
+        for (int cell = 0; cell < size; cell++) {
+            order[cell] = (long) months[cell] << 32 | cell;
+        }
+        Arrays.sort(order);
+        int[] cells = new int[size];
+        for (int i = 0; i < size; i++) {
+            cells[i] = (int) order[i];
+        }
+
+        months = permute(months, cells);
+        for (int where = 0; where < Model.NUM_OF_OPTIONS; where++) {
+            categories[where] = permute(categories[where], cells);
+        }
+        for (int column = 0; column < BucketScheme.NUM_OF_COLUMNS; column++) {
+            ranges[column] = permute(ranges[column], cells);
+        }
+        counts = permute(counts, cells);
+        sides = permute(sides, cells);
+        cash = permute(cash, cells);
+
+        // The cells have new numbers, so the table has to be refilled.
+        Arrays.fill(table, 0);
+        for (int cell = 0; cell < size; cell++) {
+            table[findSlot(cellKey(cell))] = cell + 1;
+        }
+
+        int distinct = 0;
+        for (int cell = 0; cell < size; cell++) {
+            if (cell == 0 || months[cell] != months[cell - 1]) {
+                distinct++;
+            }
+        }
+        monthKeys = new int[distinct];
+        monthStarts = new int[distinct + 1];
+        distinct = 0;
+        for (int cell = 0; cell < size; cell++) {
+            if (cell == 0 || months[cell] != months[cell - 1]) {
+                monthKeys[distinct] = months[cell];
+                monthStarts[distinct] = cell;
+                distinct++;
+            }
+        }
+        monthStarts[distinct] = size;
+
+        for (int where = 0; where < Model.NUM_OF_OPTIONS; where++) {
+            RowBitmap[] index = new RowBitmap[dataset.getDictionary(where).size()];
+            for (int code = 0; code < index.length; code++) {
+                index[code] = new RowBitmap();
+            }
+            int[] codes = categories[where];
+            for (int cell = 0; cell < size; cell++) {
+                index[codes[cell]].add(cell);
+            }
+            indexes[where] = index;
+        }
+        sorted = true;
+    }
+
+    /**
+     * Removes every cell. Must be called whenever the Dataset is cleared.
+     */
+    public void clear() {
+        size = 0;
+        Arrays.fill(table, 0);
+        listedByCompany = new boolean[0];
+        soldByCompany = new boolean[0];
+        monthKeys = new int[0];
+        monthStarts = new int[]{0};
+        indexes = new RowBitmap[Model.NUM_OF_OPTIONS][0];
+        sorted = true;
+    }
+
+    /**
+     * Works out which range of a scheme each range of the cube falls in.
+     *
+     * @param scheme One of the schemes the cube was made with.
+     * @return The range of the scheme, or -1 for none, indexed by the cube's
+     * range of the scheme's column.
+     */
+    public int[] getBucketMap(BucketScheme scheme) {
+        BucketScheme partition = partitions[scheme.getColumn()];
+        int[] buckets = new int[partition.getBucketCount()];
+        for (int range = 0; range < buckets.length; range++) {
+            buckets[range] = scheme.getBucket(partition.getBound(range));
+        }
+        return buckets;
+    }
+
+    /**
+     * Adds the totals of a cell to the stats of its month.
+     *
+     * @param stats The stats of the month, indexed as in Model.addSale.
+     * @param cell The cell.
+     * @param column The column of the report's scheme.
+     * @param buckets The getBucketMap() of the report's scheme.
+     */
+    public void addTo(long[] stats, int cell, int column, int[] buckets) {
+        int range = ranges[column][cell];
+        if (range != -1 && buckets[range] != -1) {
+            stats[Model.STAT_BUCKETS + buckets[range]] += counts[cell];
+        }
+        stats[Model.STAT_SIDES] += sides[cell];
+        stats[Model.STAT_SALES] += counts[cell];
+        stats[Model.STAT_MONEY] += cash[cell];
+    }
+
+    /**
+     * Returns the first cell of the given month. The cube must be sorted.
+     *
+     * @param month The packed yyyymm month.
+     * @return The first cell of the month, or getEndCell(month) if the month
+     * has no cells.
+     */
+    public int getFirstCell(int month) {
+        int i = Arrays.binarySearch(monthKeys, month);
+        return i < 0 ? 0 : monthStarts[i];
+    }
+
+    /**
+     * Returns the cell after the last cell of the given month. The cube must
+     * be sorted.
+     *
+     * @param month The packed yyyymm month.
+     * @return One past the last cell of the month.
+     */
+    public int getEndCell(int month) {
+        int i = Arrays.binarySearch(monthKeys, month);
+        return i < 0 ? 0 : monthStarts[i + 1];
+    }
+
+    /**
+     * Returns the cells that hold a value of a "where". The cube must be
+     * sorted.
+     *
+     * @param where The "where".
+     * @param code The Dataset's code of the value.
+     * @return The cells, which must not be changed.
+     */
+    public RowBitmap getIndex(int where, int code) {
+        return indexes[where][code];
+    }
+
+    /**
+     * Returns the codes of a "where" of each cell. Only the first size()
+     * entries are cells.
+     *
+     * @param where The "where".
+     * @return The Dataset's codes.
+     */
+    public int[] getCategory(int where) {
+        return categories[where];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Dataset getDataset() {
+        return dataset;
+    }
+
+    /**
+     * Returns the cell with the key in key, adding it if there is none.
+     */
+    private int findOrAddCell() {
+        int slot = findSlot(key);
+        if (table[slot] != 0) {
+            return table[slot] - 1;
+        }
+
+        int cell = size;
+        ensureCapacity(size + 1);
+        months[cell] = key[0];
+        for (int where = 0; where < Model.NUM_OF_OPTIONS; where++) {
+            categories[where][cell] = key[where + 1];
+        }
+        for (int column = 0; column < BucketScheme.NUM_OF_COLUMNS; column++) {
+            ranges[column][cell] = key[Model.NUM_OF_OPTIONS + 1 + column];
+        }
+        counts[cell] = 0;
+        sides[cell] = 0;
+        cash[cell] = 0;
+        size++;
+        table[slot] = cell + 1;
+
+        if (size * 2 > table.length) {
+            table = new int[table.length * 2];
+            for (int i = 0; i < size; i++) {
+                table[findSlot(cellKey(i))] = i + 1;
+            }
+        }
+        return cell;
+    }
+
+    /**
+     * Returns the slot holding the cell with the given key, or the empty slot
+     * it would go in.
+     */
+    private int findSlot(int[] cellKey) {
+        int h = 0;
+        for (int value : cellKey) {
+            h = h * 31 + value;
+        }
+        h *= 0x9E3779B9;
+        int mask = table.length - 1;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (table[slot] != 0 && !hasKey(table[slot] - 1, cellKey)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean hasKey(int cell, int[] cellKey) {
+        if (months[cell] != cellKey[0]) {
+            return false;
+        }
+        for (int where = 0; where < Model.NUM_OF_OPTIONS; where++) {
+            if (categories[where][cell] != cellKey[where + 1]) {
+                return false;
+            }
+        }
+        for (int column = 0; column < BucketScheme.NUM_OF_COLUMNS; column++) {
+            if (ranges[column][cell] != cellKey[Model.NUM_OF_OPTIONS + 1 + column]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the range of a column a value falls in, or 0 if no scheme
+     * splits on the column.
+     */
+    private int getRange(int column, long value) {
+        return partitions[column] == null ? 0 : partitions[column].getBucket(value);
+    }
+
+    /**
+     * Returns the key of a cell: its month, its six codes and its range of
+     * each column.
+     */
+    private int[] cellKey(int cell) {
+        int[] cellKey = new int[key.length];
+        cellKey[0] = months[cell];
+        for (int where = 0; where < Model.NUM_OF_OPTIONS; where++) {
+            cellKey[where + 1] = categories[where][cell];
+        }
+        for (int column = 0; column < BucketScheme.NUM_OF_COLUMNS; column++) {
+            cellKey[Model.NUM_OF_OPTIONS + 1 + column] = ranges[column][cell];
+        }
+        return cellKey;
+    }
+
+    /**
+     * Works out whether the agencies added to the Dataset since the last
+     * call are COMPANY.
+     */
+    private void updateCompanyAgencies() {
+        listedByCompany = updateCompanyAgencies(Dataset.LISTING_AGENCY, listedByCompany);
+        soldByCompany = updateCompanyAgencies(Dataset.SELLING_AGENCY, soldByCompany);
+    }
+
+    private boolean[] updateCompanyAgencies(int category, boolean[] isCompany) {
+        ValueDictionary agencies = dataset.getDictionary(category);
+        int known = isCompany.length;
+        isCompany = Arrays.copyOf(isCompany, agencies.size());
+        for (int code = known; code < isCompany.length; code++) {
+            isCompany[code] = agencies.getValue(code).contains(company);
+        }
+        return isCompany;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= months.length) {
+            return;
+        }
+        int grown = Math.max(capacity, Math.max(16, months.length * 3 / 2));
+        months = Arrays.copyOf(months, grown);
+        for (int where = 0; where < Model.NUM_OF_OPTIONS; where++) {
+            categories[where] = Arrays.copyOf(categories[where], grown);
+        }
+        for (int column = 0; column < BucketScheme.NUM_OF_COLUMNS; column++) {
+            ranges[column] = Arrays.copyOf(ranges[column], grown);
+        }
+        counts = Arrays.copyOf(counts, grown);
+        sides = Arrays.copyOf(sides, grown);
+        cash = Arrays.copyOf(cash, grown);
+    }
+
+    private int[] permute(int[] column, int[] order) {
+        int[] result = new int[column.length];
+        for (int i = 0; i < size; i++) {
+            result[i] = column[order[i]];
+        }
+        return result;
+    }
+
+    private long[] permute(long[] column, int[] order) {
+        long[] result = new long[column.length];
+        for (int i = 0; i < size; i++) {
+            result[i] = column[order[i]];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,304 @@
+package Stats;
+
+import java.util.Arrays;
+
+/**
+ * Holds the imported sales in columns of primitives. Every sale is one row.
+ * Text columns such as the county or the listing agency are stored as codes
+ * from a ValueDictionary, prices as whole cents and the sold date as a packed
+ * yyyymm month.
+ *
+ * Once sort() has been called the rows are ordered by month, and the rows of
+ * any one month can be found with getFirstRow() and getEndRow(). Sorting is
+ * stable, so rows of the same month stay in the order they were added.
+ *
+ * @author Christopher Buss
+ */
+public class Dataset {
+
+    // The text columns. The first six line up with Model's "where" constants
+    // so that a rule's "where" can be used to pick the column directly.
+    public static final int LISTING_AGENCY = 6;
+    public static final int SELLING_AGENCY = 7;
+    public static final int NUM_OF_CATEGORIES = 8;
+
+    private final ValueDictionary[] dictionaries = new ValueDictionary[NUM_OF_CATEGORIES];
+
+    private int size;
+    private int[] months = new int[0];
+    private int[][] categories = new int[NUM_OF_CATEGORIES][0];
+    private long[] soldPrices = new long[0];
+    private long[] listPrices = new long[0];
+    private int[] daysOnMarket = new int[0];
+
+    // The distinct months in ascending order. The rows of monthKeys[i] are
+    // monthStarts[i] up to, but not including, monthStarts[i + 1].
+    private int[] monthKeys = new int[0];
+    private int[] monthStarts = {0};
+    private boolean sorted = true;
+
+    /**
+     * Creates an empty dataset.
+     */
+    public Dataset() {
+        for (int i = 0; i < NUM_OF_CATEGORIES; i++) {
+            dictionaries[i] = new ValueDictionary();
+        }
+    }
+
+    /**
+     * Adds a sale.
+     *
+     * @param month The packed yyyymm month the property sold in.
+     * @param values The text values indexed by category.
+     * @param soldPrice The sold price in cents.
+     * @param listPrice The list price in cents, or -1 if unknown.
+     * @param days The days on market, or -1 if unknown.
+     */
+    public void add(int month, String[] values, long soldPrice, long listPrice, int days) {
+        ensureCapacity(size + 1);
+        months[size] = month;
+        for (int i = 0; i < NUM_OF_CATEGORIES; i++) {
+            categories[i][size] = dictionaries[i].encode(values[i]);
+        }
+        soldPrices[size] = soldPrice;
+        listPrices[size] = listPrice;
+        daysOnMarket[size] = days;
+        size++;
+        sorted = false;
+    }
+
+    /**
+     * Adds every row of another dataset after the rows of this one. Codes are
+     * translated into this dataset's dictionaries.
+     *
+     * @param other The dataset to copy rows from.
+     */
+    public void addAll(Dataset other) {
+        ensureCapacity(size + other.size);
+        for (int i = 0; i < NUM_OF_CATEGORIES; i++) {
+            ValueDictionary from = other.dictionaries[i];
+            int[] remap = new int[from.size()];
+            for (int code = 0; code < remap.length; code++) {
+                remap[code] = dictionaries[i].encode(from.getValue(code));
+            }
+            int[] source = other.categories[i];
+            int[] target = categories[i];
+            for (int row = 0; row < other.size; row++) {
+                target[size + row] = remap[source[row]];
+            }
+        }
+        System.arraycopy(other.months, 0, months, size, other.size);
+        System.arraycopy(other.soldPrices, 0, soldPrices, size, other.size);
+        System.arraycopy(other.listPrices, 0, listPrices, size, other.size);
+        System.arraycopy(other.daysOnMarket, 0, daysOnMarket, size, other.size);
+        size += other.size;
+        sorted = sorted && other.size == 0;
+    }
+
+    /**
+     * Replaces the rows of an empty dataset with the given columns. Used to
+     * restore a dataset that was saved with DatasetSnapshot; the dictionaries
+     * must already hold the values the codes refer to.
+     *
+     * @param size The number of rows.
+     * @param months The packed yyyymm months.
+     * @param categories The codes of each text column.
+     * @param soldPrices The sold prices in cents.
+     * @param listPrices The list prices in cents.
+     * @param days The days on market.
+     */
+    void setRows(int size, int[] months, int[][] categories, long[] soldPrices,
+            long[] listPrices, int[] days) {
+        this.size = size;
+        this.months = months;
+        this.categories = categories;
+        this.soldPrices = soldPrices;
+        this.listPrices = listPrices;
+        this.daysOnMarket = days;
+        sorted = false;
+        sort();
+    }
+
+    /**
+     * Orders the rows by month and rebuilds the month index. This is a
+     * counting sort over the distinct months, so it is linear in the number
+     * of rows.
+     */
+    public void sort() {
+        if (sorted) {
+            return;
+        }
+
+        // Number the months from the earliest one and count the rows of each.
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (int row = 0; row < size; row++) {
+            first = Math.min(first, monthNumber(months[row]));
+            last = Math.max(last, monthNumber(months[row]));
+        }
+        int span = size == 0 ? 0 : last - first + 1;
+        int[] counts = new int[span + 1];
+        for (int row = 0; row < size; row++) {
+            counts[monthNumber(months[row]) - first + 1]++;
+        }
+
+        // Keep the months that have rows, and work out where each starts.
+        int distinct = 0;
+        for (int i = 1; i <= span; i++) {
+            if (counts[i] > 0) {
+                distinct++;
+            }
+        }
+        int[] keys = new int[distinct];
+        int[] starts = new int[distinct + 1];
+        int[] next = new int[span];
+        distinct = 0;
+        for (int i = 0; i < span; i++) {
+            next[i] = starts[distinct];
+            if (counts[i + 1] > 0) {
+                keys[distinct] = (first + i) / 12 * 100 + (first + i) % 12 + 1;
+                starts[distinct + 1] = starts[distinct] + counts[i + 1];
+                distinct++;
+            }
+        }
+
+        // order[newRow] = oldRow. Rows that are already in order, such as
+        // ones read back from a snapshot, are left where they are.
+        int[] order = new int[size];
+        boolean inOrder = true;
+        for (int row = 0; row < size; row++) {
+            int newRow = next[monthNumber(months[row]) - first]++;
+            order[newRow] = row;
+            inOrder = inOrder && newRow == row;
+        }
+
+        if (!inOrder) {
+            months = permute(months, order);
+            for (int i = 0; i < NUM_OF_CATEGORIES; i++) {
+                categories[i] = permute(categories[i], order);
+            }
+            soldPrices = permute(soldPrices, order);
+            listPrices = permute(listPrices, order);
+            daysOnMarket = permute(daysOnMarket, order);
+        }
+
+        monthKeys = keys;
+        monthStarts = starts;
+        sorted = true;
+    }
+
+    /**
+     * Removes every row and every dictionary value.
+     */
+    public void clear() {
+        size = 0;
+        for (ValueDictionary dictionary : dictionaries) {
+            dictionary.clear();
+        }
+        monthKeys = new int[0];
+        monthStarts = new int[]{0};
+        sorted = true;
+    }
+
+    /**
+     * Returns the first row of the given month. The dataset must be sorted.
+     *
+     * @param month The packed yyyymm month.
+     * @return The first row of the month, or getEndRow(month) if the month
+     * has no rows.
+     */
+    public int getFirstRow(int month) {
+        int i = Arrays.binarySearch(monthKeys, month);
+        return i < 0 ? 0 : monthStarts[i];
+    }
+
+    /**
+     * Returns the row after the last row of the given month. The dataset must
+     * be sorted.
+     *
+     * @param month The packed yyyymm month.
+     * @return One past the last row of the month.
+     */
+    public int getEndRow(int month) {
+        int i = Arrays.binarySearch(monthKeys, month);
+        return i < 0 ? 0 : monthStarts[i + 1];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ValueDictionary getDictionary(int category) {
+        return dictionaries[category];
+    }
+
+    /**
+     * Returns the codes of a text column. Only the first size() entries are
+     * rows; the array is replaced whenever rows are added or sorted.
+     *
+     * @param category The column to return.
+     * @return The codes of the column.
+     */
+    public int[] getCategory(int category) {
+        return categories[category];
+    }
+
+    public int[] getMonths() {
+        return months;
+    }
+
+    public long[] getSoldPrices() {
+        return soldPrices;
+    }
+
+    public long[] getListPrices() {
+        return listPrices;
+    }
+
+    public int[] getDaysOnMarket() {
+        return daysOnMarket;
+    }
+
+    /**
+     * Grows the column arrays so that they can hold at least the given number
+     * of rows.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= months.length) {
+            return;
+        }
+        int grown = Math.max(capacity, Math.max(16, months.length * 3 / 2));
+        months = Arrays.copyOf(months, grown);
+        for (int i = 0; i < NUM_OF_CATEGORIES; i++) {
+            categories[i] = Arrays.copyOf(categories[i], grown);
+        }
+        soldPrices = Arrays.copyOf(soldPrices, grown);
+        listPrices = Arrays.copyOf(listPrices, grown);
+        daysOnMarket = Arrays.copyOf(daysOnMarket, grown);
+    }
+
+    /**
+     * Turns a packed yyyymm month into a count of months so that consecutive
+     * months are consecutive numbers.
+     */
+    private static int monthNumber(int month) {
+        return month / 100 * 12 + month % 100 - 1;
+    }
+
+    private int[] permute(int[] column, int[] order) {
+        int[] result = new int[column.length];
+        for (int row = 0; row < size; row++) {
+            result[row] = column[order[row]];
+        }
+        return result;
+    }
+
+    private long[] permute(long[] column, int[] order) {
+        long[] result = new long[column.length];
+        for (int row = 0; row < size; row++) {
+            result[row] = column[order[row]];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,424 @@
+package Stats;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A binary copy of everything an import produces: the Dataset and the
+ * municipality/county pairs. The "equals" values are the Dataset's
+ * dictionaries, so they come with it. It is written next to the
+ * CSV file after an import, and the next import of the same file loads it
+ * instead of parsing the CSV again.
+ *
+ * A snapshot records how many bytes of the CSV file it holds and the
+ * checksumPrefix() of them. It is only used if the CSV file still starts with
+ * those bytes and
+ * the columns read from it have not been changed in config.properties; if
+ * the file is the same size it must also have the same modification time.
+ * When rows have been appended to the file since, only the new rows need to
+ * be parsed after loading the snapshot. The snapshot ends
+ * with a CRC-32 of its own contents, so damage to it is caught as well. A
+ * stale, damaged or unreadable snapshot is ignored, which makes the caller
+ * fall back to a full import.
+ *
+ * The snapshot is read through a memory map, so the columns are copied
+ * straight out of the page cache into their arrays.
+ *
+ * @author Christopher Buss
+ */
+public class DatasetSnapshot {
+
+    // Appended to the name of the CSV file.
+    public static final String SUFFIX = ".snapshot";
+
+    private static final long MAGIC = 0x5354415453534e50L; // "STATSSNP"
+    private static final int VERSION = 5;
+    // How many bytes at each end of a file's imported part checksumPrefix()
+    // hashes.
+    private static final int PREFIX_BLOCK = 64 << 10;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Dataset dataset;
+    private final PairIndex municipalitiesAndCounties;
+    // How much of the CSV file was imported.
+    private final long sourceLength;
+    private final long sourceChecksum;
+    private final int lineCount;
+
+    /**
+     * @param dataset The imported rows.
+     * @param municipalitiesAndCounties The municipality/county pairs.
+     * @param sourceLength The number of bytes of the CSV file imported.
+     * @param sourceChecksum The checksumPrefix() of those bytes.
+     * @param lineCount The number of records in those bytes, not counting the
+     * header.
+     */
+    public DatasetSnapshot(Dataset dataset, PairIndex municipalitiesAndCounties,
+            long sourceLength, long sourceChecksum, int lineCount) {
+        this.dataset = dataset;
+        this.municipalitiesAndCounties = municipalitiesAndCounties;
+        this.sourceLength = sourceLength;
+        this.sourceChecksum = sourceChecksum;
+        this.lineCount = lineCount;
+    }
+
+    public Dataset getDataset() {
+        return dataset;
+    }
+
+    public PairIndex getMunicipalitiesAndCounties() {
+        return municipalitiesAndCounties;
+    }
+
+    public long getSourceLength() {
+        return sourceLength;
+    }
+
+    public long getSourceChecksum() {
+        return sourceChecksum;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Returns the snapshot file that belongs to a CSV file.
+     *
+     * @param source The CSV file.
+     * @return The snapshot file.
+     */
+    public static File getFile(File source) {
+        return new File(source.getPath() + SUFFIX);
+    }
+
+    /**
+     * Writes the snapshot for the given CSV file. The snapshot is written to
+     * a temporary file first so that a crash never leaves half a snapshot
+     * behind.
+     *
+     * @param source The CSV file the snapshot was imported from.
+     * @param columns The CSV columns that were read, in ARR_ order.
+     * @throws IOException
+     */
+    public void write(File source, int[] columns) throws IOException {
+
+        File target = getFile(source);
+        File temp = new File(target.getPath() + ".tmp");
+        CheckedOutputStream checked = new CheckedOutputStream(
+                new FileOutputStream(temp), new CRC32());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+        try {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceLength);
+            out.writeLong(source.lastModified());
+            out.writeLong(sourceChecksum);
+            out.writeInt(lineCount);
+            writeInts(out, columns, columns.length);
+
+            for (int i = 0; i < Dataset.NUM_OF_CATEGORIES; i++) {
+                ValueDictionary dictionary = dataset.getDictionary(i);
+                out.writeInt(dictionary.size());
+                for (int code = 0; code < dictionary.size(); code++) {
+                    writeString(out, dictionary.getValue(code));
+                }
+            }
+
+            int rows = dataset.size();
+            out.writeInt(rows);
+            writeInts(out, dataset.getMonths(), rows);
+            for (int i = 0; i < Dataset.NUM_OF_CATEGORIES; i++) {
+                writeInts(out, dataset.getCategory(i), rows);
+            }
+            writeLongs(out, dataset.getSoldPrices(), rows);
+            writeLongs(out, dataset.getListPrices(), rows);
+            writeInts(out, dataset.getDaysOnMarket(), rows);
+
+            out.writeInt(municipalitiesAndCounties.size());
+            for (int i = 0; i < municipalitiesAndCounties.size(); i++) {
+                writeString(out, municipalitiesAndCounties.getFirst(i));
+                writeString(out, municipalitiesAndCounties.getSecond(i));
+            }
+
+            // Written last so that a truncated or damaged file is never
+            // mistaken for a good one.
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+        } finally {
+            out.close();
+        }
+
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Could not replace " + target);
+        }
+        if (!temp.renameTo(target)) {
+            throw new IOException("Could not write " + target);
+        }
+    }
+
+    /**
+     * Loads the snapshot of the given CSV file if there is a usable one.
+     *
+     * @param source The CSV file.
+     * @param columns The CSV columns an import would read, in ARR_ order.
+     * @return The snapshot, or null if there is none or it is out of date or
+     * damaged.
+     */
+    public static DatasetSnapshot read(File source, int[] columns) {
+
+        File file = getFile(source);
+        if (!file.isFile() || !source.isFile()) {
+            return null;
+        }
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                long length = channel.size() - 8;
+                if (length < 0) {
+                    return null;
+                }
+                ByteBuffer trailer = ByteBuffer.allocate(8);
+                channel.read(trailer, length);
+                trailer.flip();
+                CRC32 own = new CRC32();
+                checksum(channel, 0, length, own);
+                if (trailer.remaining() != 8 || trailer.getLong() != own.getValue()) {
+                    return null;
+                }
+
+                SnapshotInput in = new SnapshotInput(channel, length);
+                if (in.readLong() != MAGIC || in.readInt() != VERSION) {
+                    return null;
+                }
+
+                // Check the cheap things before hashing the CSV file.
+                long size = in.readLong();
+                long modified = in.readLong();
+                long checksum = in.readLong();
+                int lineCount = in.readInt();
+                int[] savedColumns = in.readInts(columns.length);
+                long available = source.length();
+                if (size > available || (size == available && modified != source.lastModified())
+                        || !Arrays.equals(savedColumns, columns)) {
+                    return null;
+                }
+                if (checksum != checksumPrefix(source, size)) {
+                    return null;
+                }
+
+                Dataset dataset = new Dataset();
+                for (int i = 0; i < Dataset.NUM_OF_CATEGORIES; i++) {
+                    ValueDictionary dictionary = dataset.getDictionary(i);
+                    int count = in.readInt();
+                    for (int code = 0; code < count; code++) {
+                        dictionary.encode(in.readString());
+                    }
+                }
+
+                int rows = in.readInt();
+                int[] months = in.readInts(rows);
+                int[][] categories = new int[Dataset.NUM_OF_CATEGORIES][];
+                for (int i = 0; i < Dataset.NUM_OF_CATEGORIES; i++) {
+                    categories[i] = in.readInts(rows);
+                    int codes = dataset.getDictionary(i).size();
+                    for (int row = 0; row < rows; row++) {
+                        if (categories[i][row] < 0 || categories[i][row] >= codes) {
+                            return null;
+                        }
+                    }
+                }
+                long[] soldPrices = in.readLongs(rows);
+                long[] listPrices = in.readLongs(rows);
+                int[] days = in.readInts(rows);
+
+                PairIndex places = new PairIndex();
+                int pairs = in.readInt();
+                for (int i = 0; i < pairs; i++) {
+                    places.add(in.readString(), in.readString());
+                }
+
+                dataset.setRows(rows, months, categories, soldPrices, listPrices, days);
+                return new DatasetSnapshot(dataset, places, size, checksum, lineCount);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException | RuntimeException ex) {
+            // Anything wrong with the snapshot just means a full import.
+            return null;
+        }
+    }
+
+    /**
+     * Hashes the first bytes of a file, to tell later whether the file still
+     * starts with them. Only the first and last PREFIX_BLOCK bytes of them go
+     * into the CRC-32, so checking a file costs the same however long it has
+     * grown. Together with the number of bytes, this catches a file that was
+     * replaced, rewritten or had rows removed or inserted. It misses an edit
+     * in the middle that keeps the length, which an export that only has rows
+     * appended to it never has.
+     *
+     * @param source The file to hash.
+     * @param length The number of bytes to hash from the start of the file.
+     * @return The CRC-32.
+     * @throws IOException If the file is shorter than length.
+     */
+    public static long checksumPrefix(File source, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        RandomAccessFile raf = new RandomAccessFile(source, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (length <= 2 * PREFIX_BLOCK) {
+                checksum(channel, 0, length, crc);
+            } else {
+                checksum(channel, 0, PREFIX_BLOCK, crc);
+                checksum(channel, length - PREFIX_BLOCK, length, crc);
+            }
+        } finally {
+            raf.close();
+        }
+        return crc.getValue();
+    }
+
+    private static void checksum(FileChannel channel, long from, long to, CRC32 crc)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        long position = from;
+        while (position < to) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                throw new IOException("File is shorter than expected");
+            }
+            crc.update(buffer.array(), 0, n);
+            position += n;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values, int count) throws IOException {
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeLong(values[i]);
+        }
+    }
+
+    /**
+     * Reads a snapshot through a window that is mapped over the file and
+     * moved along as it is read. A single map cannot be larger than 2 GB,
+     * which large snapshots are.
+     */
+    private static class SnapshotInput {
+
+        private static final long WINDOW_SIZE = 64L << 20;
+
+        private final FileChannel channel;
+        private final long size;
+        private ByteBuffer window = ByteBuffer.allocate(0);
+        private long windowStart;
+
+        SnapshotInput(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        /**
+         * Makes sure the window holds at least the given number of bytes
+         * after the current position.
+         */
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() >= bytes) {
+                return;
+            }
+            long position = windowStart + window.position();
+            long length = Math.min(WINDOW_SIZE, size - position);
+            if (length < bytes) {
+                throw new IOException("Snapshot is truncated");
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            windowStart = position;
+        }
+
+        int readInt() throws IOException {
+            ensure(4);
+            return window.getInt();
+        }
+
+        long readLong() throws IOException {
+            ensure(8);
+            return window.getLong();
+        }
+
+        String readString() throws IOException {
+            int length = readInt();
+            byte[] bytes = new byte[length];
+            int read = 0;
+            while (read < length) {
+                ensure(1);
+                int n = Math.min(length - read, window.remaining());
+                window.get(bytes, read, n);
+                read += n;
+            }
+            return new String(bytes, UTF_8);
+        }
+
+        int[] readInts(int expected) throws IOException {
+            int count = readInt();
+            if (count != expected) {
+                throw new IOException("Snapshot column has the wrong length");
+            }
+            int[] values = new int[count];
+            int read = 0;
+            while (read < count) {
+                ensure(4);
+                int n = Math.min(count - read, window.remaining() / 4);
+                window.asIntBuffer().get(values, read, n);
+                window.position(window.position() + n * 4);
+                read += n;
+            }
+            return values;
+        }
+
+        long[] readLongs(int expected) throws IOException {
+            int count = readInt();
+            if (count != expected) {
+                throw new IOException("Snapshot column has the wrong length");
+            }
+            long[] values = new long[count];
+            int read = 0;
+            while (read < count) {
+                ensure(8);
+                int n = Math.min(count - read, window.remaining() / 8);
+                window.asLongBuffer().get(values, read, n);
+                window.position(window.position() + n * 8);
+                read += n;
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package Stats;
+
+/**
+ * Reads sold dates into packed ints without creating any objects. A date is
+ * packed as yyyymmdd and a month as yyyymm, so packed values sort in date
+ * order and can be used directly as keys.
+ *
+ * The formats found in MLS exports are accepted: mm/dd/yyyy, m/d/yyyy and
+ * yyyy-mm-dd, optionally followed by a space or a 'T' and a time of day.
+ *
+ * @author Christopher Buss
+ */
+public class DateParser {
+
+    // Returned for anything that is not a date.
+    public static final int INVALID = -1;
+
+    private DateParser() {
+    }
+
+    /**
+     * Reads a date.
+     *
+     * @param str The text of the date.
+     * @return The date packed as yyyymmdd, or INVALID.
+     */
+    public static int parseDate(CharSequence str) {
+
+        int length = str.length();
+        int i = 0;
+
+        // Skip leading blanks.
+        while (i < length && str.charAt(i) == ' ') {
+            i++;
+        }
+
+        // Read the three numbers and the separator between them.
+        int first = 0;
+        int second = 0;
+        int third = 0;
+        char separator = 0;
+        for (int part = 0; part < 3; part++) {
+            int value = 0;
+            int digits = 0;
+            while (i < length && digits < 5) {
+                char ch = str.charAt(i);
+                if (ch < '0' || ch > '9') {
+                    break;
+                }
+                value = value * 10 + (ch - '0');
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 4) {
+                return INVALID;
+            }
+
+            if (part == 0) {
+                first = value;
+            } else if (part == 1) {
+                second = value;
+            } else {
+                third = value;
+                break;
+            }
+
+            // Both separators have to be the same character.
+            if (i == length) {
+                return INVALID;
+            }
+            char ch = str.charAt(i++);
+            if (part == 0 && (ch == '/' || ch == '-')) {
+                separator = ch;
+            } else if (ch != separator) {
+                return INVALID;
+            }
+        }
+
+        // Allow a time of day after the date.
+        if (i < length && str.charAt(i) != ' ' && str.charAt(i) != 'T') {
+            return INVALID;
+        }
+
+        int year;
+        int month;
+        int day;
+        if (separator == '-') {
+            year = first;
+            month = second;
+            day = third;
+        } else {
+            month = first;
+            day = second;
+            year = third;
+        }
+
+        if (year < 1000 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return INVALID;
+        }
+        return year * 10000 + month * 100 + day;
+    }
+
+    /**
+     * Reads the month out of a date.
+     *
+     * @param str The text of the date.
+     * @return The month packed as yyyymm, or INVALID.
+     */
+    public static int parseMonth(CharSequence str) {
+        int date = parseDate(str);
+        return date == INVALID ? INVALID : date / 100;
+    }
+
+    /**
+     * Packs a year and month.
+     *
+     * @param year The year.
+     * @param month The month, 1 to 12.
+     * @return The month packed as yyyymm.
+     */
+    public static int packMonth(int year, int month) {
+        return year * 100 + month;
+    }
+
+    /**
+     * Moves a packed month forward or back.
+     *
+     * @param month The month packed as yyyymm.
+     * @param months The number of months to move, negative to move back.
+     * @return The month packed as yyyymm.
+     */
+    public static int addMonths(int month, int months) {
+        int index = month / 100 * 12 + month % 100 - 1 + months;
+        return packMonth(index / 12, index % 12 + 1);
+    }
+
+    /**
+     * Counts the months from one packed month to another.
+     *
+     * @param from The first month, packed as yyyymm.
+     * @param to The second month, packed as yyyymm.
+     * @return The number of months, negative if to is before from.
+     */
+    public static int monthsBetween(int from, int to) {
+        return (to / 100 - from / 100) * 12 + to % 100 - from % 100;
+    }
+}
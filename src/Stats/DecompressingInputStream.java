@@ -0,0 +1,302 @@
+package Stats;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads a gzipped CSV file, or the CSV file inside a zip file, without
+ * unpacking it to disk first. The file is inflated on a thread of its own
+ * into a small number of buffers that are handed to the reader through a
+ * bounded queue, so inflating the next part of the file and tokenizing the
+ * last one happen at the same time while memory use stays fixed.
+ *
+ * The progress of reading the file is the bytes of the compressed file read,
+ * as a gzipped file only records the size it unpacks to modulo 4GB. If
+ * inflating fails in any way, the reader gets an IOException rather than
+ * waiting for the next buffer forever.
+ *
+ * @author Christopher Buss
+ */
+public class DecompressingInputStream extends InputStream {
+
+    // Size of each buffer and how many may be waiting to be read.
+    private static final int CHUNK_SIZE = 1 << 18;
+    private static final int QUEUE_SIZE = 8;
+    // Queued after the last chunk of the file.
+    private static final Chunk END = new Chunk(0);
+
+    private final BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final BlockingQueue<Chunk> empty = new ArrayBlockingQueue<>(QUEUE_SIZE + 1);
+    private final Thread inflater;
+    // Set by the inflater if the file could not be read.
+    private volatile IOException error;
+    private Chunk chunk;
+    private int pos;
+
+    /**
+     * Opens a compressed file and starts inflating it.
+     *
+     * @param fileName A .gz file or a .zip file holding a CSV file.
+     * @throws IOException
+     */
+    public DecompressingInputStream(String fileName) throws IOException {
+        this(fileName, null);
+    }
+
+    /**
+     * Opens a compressed file and starts inflating it, adding the bytes of
+     * the file read to a progress.
+     *
+     * @param fileName A .gz file or a .zip file holding a CSV file.
+     * @param progress The progress of the import, or null.
+     * @throws IOException
+     */
+    public DecompressingInputStream(String fileName, ImportProgress progress)
+            throws IOException {
+        final InputStream source = open(fileName, progress);
+        for (int i = 0; i < QUEUE_SIZE + 1; i++) {
+            empty.add(new Chunk(CHUNK_SIZE));
+        }
+
+        inflater = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    try {
+                        inflate(source);
+                    } catch (IOException | RuntimeException | Error ex) {
+                        // The reader is told whatever goes wrong, or it
+                        // would wait for the next chunk forever.
+                        error = ex instanceof IOException ? (IOException) ex
+                                : new IOException("Could not decompress the file", ex);
+                    }
+                    full.put(END);
+                } catch (InterruptedException ex) {
+                    // The reader was closed before the end of the file.
+                } finally {
+                    try {
+                        source.close();
+                    } catch (IOException ex) {
+                    }
+                }
+            }
+        }, "Decompressing " + fileName);
+        inflater.setDaemon(true);
+        inflater.start();
+    }
+
+    /**
+     * Checks whether a file name is one of a compressed file that this class
+     * can read.
+     *
+     * @param fileName The name of the file.
+     * @return True for .gz and .zip files.
+     */
+    public static boolean isCompressed(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        return name.endsWith(".gz") || name.endsWith(".zip");
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return chunk.data[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length - pos);
+        System.arraycopy(chunk.data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * Stops the inflater thread and closes the file.
+     */
+    @Override
+    public void close() {
+        inflater.interrupt();
+    }
+
+    /**
+     * Makes sure there are unread bytes in chunk.
+     *
+     * @return False at the end of the file.
+     */
+    private boolean fill() throws IOException {
+        while (chunk == null || pos == chunk.length) {
+            if (chunk == END) {
+                if (error != null) {
+                    throw error;
+                }
+                return false;
+            }
+            if (chunk != null) {
+                empty.add(chunk);
+            }
+            try {
+                chunk = full.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Import was interrupted", ex);
+            }
+            pos = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Runs on the inflater thread. Fills empty chunks from the source and
+     * queues them until the end of the file.
+     */
+    private void inflate(InputStream source) throws IOException, InterruptedException {
+        while (true) {
+            Chunk next = empty.take();
+            int n = 0;
+            int read;
+            while (n < next.data.length
+                    && (read = source.read(next.data, n, next.data.length - n)) != -1) {
+                n += read;
+            }
+            next.length = n;
+            if (n > 0) {
+                full.put(next);
+            }
+            if (n < next.data.length) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Opens the compressed data of a file. For a zip file this is the first
+     * .csv file in it, or the first file if none is named .csv. The bytes of
+     * the file are added to the progress as they are read.
+     */
+    private static InputStream open(String fileName, ImportProgress progress)
+            throws IOException {
+        InputStream file = new ProgressInputStream(new FileInputStream(fileName), progress);
+        try {
+            if (!fileName.toLowerCase(Locale.ROOT).endsWith(".zip")) {
+                return new GZIPInputStream(file, 1 << 16);
+            }
+
+            // The entry is picked from the zip file's directory and then read
+            // from the start of the file, so that every byte read is counted.
+            String name;
+            ZipFile zip = new ZipFile(fileName);
+            try {
+                name = findCSVEntry(zip).getName();
+            } finally {
+                zip.close();
+            }
+            ZipInputStream in = new ZipInputStream(new BufferedInputStream(file, 1 << 16));
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null && !entry.getName().equals(name)) {
+            }
+            if (entry == null) {
+                throw new IOException(name + " could not be read from " + fileName);
+            }
+            return in;
+        } catch (IOException | RuntimeException ex) {
+            file.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Finds the first .csv file in a zip file, or the first file if none is
+     * named .csv.
+     */
+    private static ZipEntry findCSVEntry(ZipFile zip) throws IOException {
+        ZipEntry csv = null;
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (csv == null || (entry.getName().toLowerCase(Locale.ROOT).endsWith(".csv")
+                    && !csv.getName().toLowerCase(Locale.ROOT).endsWith(".csv"))) {
+                csv = entry;
+            }
+        }
+        if (csv == null) {
+            throw new IOException("There is no file in " + zip.getName());
+        }
+        return csv;
+    }
+
+    /**
+     * Adds the bytes read from the compressed file to the progress.
+     */
+    private static class ProgressInputStream extends FilterInputStream {
+
+        private final ImportProgress progress;
+
+        ProgressInputStream(InputStream in, ImportProgress progress) {
+            super(in);
+            this.progress = progress;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1 && progress != null) {
+                progress.add(1, 0);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0 && progress != null) {
+                progress.add(n, 0);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            if (skipped > 0 && progress != null) {
+                progress.add(skipped, 0);
+            }
+            return skipped;
+        }
+    }
+
+    /**
+     * A buffer of inflated bytes.
+     */
+    private static class Chunk {
+
+        final byte[] data;
+        int length;
+
+        Chunk(int size) {
+            data = new byte[size];
+        }
+    }
+}
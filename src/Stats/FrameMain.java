@@ -55,6 +55,12 @@ public class FrameMain extends javax.swing.JFrame {
      * @param args the command line arguments
      */
     public static void main(String args[]) {
+        
+        // Reports of past years can be generated without the window.
+        if (args.length > 0 && args[0].equals(Backfill.OPTION)) {
+            System.exit(Backfill.run(java.util.Arrays.copyOfRange(args, 1, args.length)));
+        }
+        
         /* Set the Nimbus look and feel */
         //<editor-fold defaultstate="collapsed" desc=" Look and feel setting code (optional) ">
         /* If Nimbus (introduced in Java SE 6) is not available, stay with the default look and feel.
@@ -82,6 +88,13 @@ public class FrameMain extends javax.swing.JFrame {
         java.awt.EventQueue.invokeLater(new Runnable() {
             public void run() {
                 new FrameMain().setVisible(true);
+
+                // Say what was wrong with config.properties, if anything.
+                String error = Model.getInstance().getConfigurationError();
+                if (error != null) {
+                    javax.swing.JOptionPane.showMessageDialog(null, error,
+                            "Configuration Problem", javax.swing.JOptionPane.WARNING_MESSAGE);
+                }
             }
         });
     }
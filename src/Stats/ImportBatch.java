@@ -0,0 +1,334 @@
+package Stats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Holds the entries read from one stretch of a CSV file. An import fills one
+ * or more batches and then merges them into the Model in file order. Because
+ * a batch never touches the Model's Swing models while it is being filled,
+ * several batches can be read at the same time on different threads.
+ *
+ * A batch given a ReportTally only tallies its records into the reports and
+ * keeps nothing else. Once read, its tally is added to the total with
+ * addTallyTo() and let go of.
+ *
+ * Of the records that cannot be read, a batch only keeps how many there were
+ * for each reason and the first few, however dirty the file. The text of
+ * each is handed to the ImportDiagnostics writing the rejected rows file as
+ * soon as it is read.
+ *
+ * @author Christopher Buss
+ */
+public class ImportBatch {
+
+    // How many records are read between updates of the import's progress.
+    private static final int PROGRESS_INTERVAL = 4096;
+
+    // The columns to read, in ARR_ order, and how many fields a record needs
+    // to have all of them.
+    private final int[] columns;
+    private final int requiredFields;
+    // Where records are tallied instead of being kept, if anywhere.
+    private ReportTally tally;
+    // The entries read, in the order they were read.
+    private final Dataset dataset = new Dataset();
+    // Reused to hand the text values of a record to the dataset.
+    private final String[] values = new String[Dataset.NUM_OF_CATEGORIES];
+    // The distinct municipality/county pairs seen, in the order they were
+    // first seen. The distinct "equals" values are in the dataset's
+    // dictionaries.
+    private final PairIndex municipalitiesAndCounties = new PairIndex();
+    // The number of records that could not be read for each reason, and the
+    // line number and error of the first SAMPLE_SIZE of them. Line numbers
+    // are relative to the start of the batch.
+    private final int[] reasonCounts = new int[ImportDiagnostics.Reason.values().length];
+    private final ArrayList<Integer> sampleLines = new ArrayList<>();
+    private final ArrayList<String> sampleMessages = new ArrayList<>();
+    // Where the text of the records that could not be read goes, if
+    // anywhere, and the text held back from it until the batch is known to
+    // start at the beginning of a record.
+    private final ImportDiagnostics rejectedRows;
+    private ArrayList<String> heldRows;
+    // The number of values of each column, in ARR_ order, that could not be
+    // read.
+    private final int[] columnErrors;
+    private int lineCount;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param columns The CSV columns to read, in ARR_ order.
+     */
+    public ImportBatch(int[] columns) {
+        this(columns, null, null);
+    }
+
+    /**
+     * Creates an empty batch that may tally its records into the reports
+     * instead of keeping them.
+     *
+     * @param columns The CSV columns to read, in ARR_ order.
+     * @param tally The tally to add the records to, or null to keep them.
+     * @param rejectedRows The diagnostics to write the records that cannot be
+     * read to, or null.
+     */
+    public ImportBatch(int[] columns, ReportTally tally, ImportDiagnostics rejectedRows) {
+        this.columns = columns;
+        this.tally = tally;
+        this.rejectedRows = rejectedRows != null && rejectedRows.isWritingRejectedRows()
+                ? rejectedRows : null;
+        int required = 0;
+        for (int column : columns) {
+            required = Math.max(required, column + 1);
+        }
+        requiredFields = required;
+        columnErrors = new int[columns.length];
+    }
+
+    /**
+     * Reads every remaining record from the tokenizer into the batch.
+     *
+     * @param tokenizer The tokenizer positioned at the first record to read.
+     * @throws IOException
+     */
+    public void read(CSVTokenizer tokenizer) throws IOException {
+        read(tokenizer, null);
+    }
+
+    /**
+     * Reads every remaining record from the tokenizer into the batch,
+     * reporting how far it has got every PROGRESS_INTERVAL records.
+     *
+     * @param tokenizer The tokenizer positioned at the first record to read.
+     * @param progress The progress of the import, or null.
+     * @throws IOException
+     * @throws java.io.InterruptedIOException If the import was cancelled.
+     */
+    public void read(CSVTokenizer tokenizer, ImportProgress progress) throws IOException {
+        read(tokenizer, progress, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads the records that start before an offset into the batch. The last
+     * of them is read to its end even if that is past the offset.
+     *
+     * @param tokenizer The tokenizer positioned at the first record to read.
+     * @param progress The progress of the import, or null.
+     * @param end The offset in the tokenizer's stream to stop at.
+     * @throws IOException
+     * @throws java.io.InterruptedIOException If the import was cancelled.
+     */
+    public void read(CSVTokenizer tokenizer, ImportProgress progress, long end)
+            throws IOException {
+
+        long reportedPosition = tokenizer.getPosition();
+        int reportedLines = lineCount;
+
+        // Only the columns named in config.properties are ever turned into
+        // Strings. Records come back with those fields in ARR_ order.
+        tokenizer.setColumns(columns);
+
+        String[] record;
+        while (tokenizer.getPosition() < end && (record = tokenizer.nextRecord()) != null) {
+
+            lineCount++;
+
+            ImportDiagnostics.Reason reason;
+            String message;
+            if (tokenizer.getFieldCount() < requiredFields) {
+                reason = ImportDiagnostics.Reason.TOO_FEW_FIELDS;
+                message = "Expected " + requiredFields + " fields but found "
+                        + tokenizer.getFieldCount();
+            } else {
+                reason = add(record);
+                message = reason == ImportDiagnostics.Reason.UNREADABLE_SOLD_DATE
+                        ? reason.getDescription() + " " + record[Model.ARR_SOLD_DATE]
+                        : reason == ImportDiagnostics.Reason.UNREADABLE_SOLD_PRICE
+                        ? reason.getDescription() + " " + record[Model.ARR_SOLD_PRICE]
+                        : null;
+            }
+            if (reason != null) {
+                reasonCounts[reason.ordinal()]++;
+                if (sampleLines.size() < ImportDiagnostics.SAMPLE_SIZE) {
+                    sampleLines.add(lineCount);
+                    sampleMessages.add(message);
+                }
+                if (heldRows != null) {
+                    heldRows.add(tokenizer.getRecordText());
+                } else if (rejectedRows != null) {
+                    rejectedRows.writeRejectedRow(tokenizer.getRecordText());
+                }
+            }
+
+            if (progress != null && lineCount - reportedLines == PROGRESS_INTERVAL) {
+                progress.add(tokenizer.getPosition() - reportedPosition, PROGRESS_INTERVAL);
+                progress.checkCancelled();
+                reportedPosition = tokenizer.getPosition();
+                reportedLines = lineCount;
+            }
+        }
+
+        if (progress != null) {
+            progress.add(tokenizer.getPosition() - reportedPosition, lineCount - reportedLines);
+        }
+    }
+
+    /**
+     * Holds back the text of the records that cannot be read until
+     * releaseRejectedRows(), for a batch that may turn out not to start at
+     * the beginning of a record and be thrown away.
+     */
+    public void holdRejectedRows() {
+        if (rejectedRows != null) {
+            heldRows = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Writes the text held back since holdRejectedRows().
+     */
+    public void releaseRejectedRows() {
+        if (heldRows != null) {
+            for (String row : heldRows) {
+                rejectedRows.writeRejectedRow(row);
+            }
+            heldRows = null;
+        }
+    }
+
+    /**
+     * Adds a single record to the batch. Values that cannot be read are
+     * counted against their column rather than thrown, since a large export
+     * can have many of them.
+     *
+     * @param record The fields of the record in ARR_ order.
+     * @return Why the record could not be added, or null if it was.
+     */
+    private ImportDiagnostics.Reason add(String[] record) {
+
+        if (tally == null) {
+            municipalitiesAndCounties.add(record[Model.ARR_MUNICIPALITY],
+                    record[Model.ARR_COUNTY]);
+        }
+
+        // Entries are keyed on the packed yyyymm month they sold in.
+        int month = DateParser.parseMonth(record[Model.ARR_SOLD_DATE]);
+        if (month == DateParser.INVALID) {
+            columnErrors[Model.ARR_SOLD_DATE]++;
+            return ImportDiagnostics.Reason.UNREADABLE_SOLD_DATE;
+        }
+
+        // Prices are kept in cents. Only the sold price is needed for the
+        // reports, so the other numbers are allowed to be missing.
+        long soldPrice = NumberParser.parseCents(record[Model.ARR_SOLD_PRICE]);
+        if (soldPrice == NumberParser.INVALID) {
+            columnErrors[Model.ARR_SOLD_PRICE]++;
+            return ImportDiagnostics.Reason.UNREADABLE_SOLD_PRICE;
+        }
+        if (tally != null) {
+            tally.add(record, month, soldPrice);
+            return null;
+        }
+        long listPrice = NumberParser.parseCents(record[Model.ARR_LIST_PRICE]);
+        if (listPrice == NumberParser.INVALID) {
+            if (!record[Model.ARR_LIST_PRICE].trim().isEmpty()) {
+                columnErrors[Model.ARR_LIST_PRICE]++;
+            }
+            listPrice = -1;
+        }
+
+        // Days on market is optional in config.properties, so its column is
+        // not counted.
+        long days = NumberParser.parseLong(record[Model.ARR_DAYS_ON_MARKET]);
+        if (days < 0 || days > Integer.MAX_VALUE) {
+            days = -1;
+        }
+
+        values[Model.COUNTY] = record[Model.ARR_COUNTY];
+        values[Model.MUNICIPALITY] = record[Model.ARR_MUNICIPALITY];
+        values[Model.ZIP_CODE] = record[Model.ARR_ZIP_CODE];
+        values[Model.BODY_OF_WATER] = record[Model.ARR_BODY_OF_WATER];
+        values[Model.CONDO_NAME] = record[Model.ARR_CONDO_NAME];
+        values[Model.PROPERTY_TYPE] = record[Model.ARR_PROPERTY_TYPE];
+        values[Dataset.LISTING_AGENCY] = record[Model.ARR_LISTING_COMPANY_NAME];
+        values[Dataset.SELLING_AGENCY] = record[Model.ARR_SELLING_COMPANY_NAME];
+        dataset.add(month, values, soldPrice, listPrice, (int) days);
+        return null;
+    }
+
+    public Dataset getDataset() {
+        return dataset;
+    }
+
+    /**
+     * Adds the records the batch tallied to another tally and lets go of the
+     * batch's own, so that only its counts and sample are kept. Batches read
+     * on several threads may add to the same tally.
+     *
+     * @param total The tally to add to.
+     */
+    public void addTallyTo(ReportTally total) {
+        synchronized (total) {
+            total.addAll(tally);
+        }
+        tally = null;
+    }
+
+    /**
+     * Returns the distinct municipality/county pairs seen, each holding the
+     * municipality and then the county.
+     *
+     * @return The pairs in the order they were first seen.
+     */
+    public PairIndex getMunicipalitiesAndCounties() {
+        return municipalitiesAndCounties;
+    }
+
+    /**
+     * Returns the number of records read, including ones that had errors.
+     *
+     * @return The number of records in the batch.
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Returns how many values of each column could not be read.
+     *
+     * @return The counts, indexed by the ARR_ constants.
+     */
+    public int[] getColumnErrors() {
+        return columnErrors;
+    }
+
+    /**
+     * Returns how many records could not be read for a reason.
+     *
+     * @param reason The reason.
+     * @return The number of records.
+     */
+    public int getSkippedCount(ImportDiagnostics.Reason reason) {
+        return reasonCounts[reason.ordinal()];
+    }
+
+    /**
+     * Returns the line numbers of the first SAMPLE_SIZE records that could
+     * not be read, counted from the start of the batch.
+     *
+     * @return The line numbers, in order.
+     */
+    public ArrayList<Integer> getSampleLines() {
+        return sampleLines;
+    }
+
+    /**
+     * Returns why each of the getSampleLines() records could not be read.
+     *
+     * @return The errors, in the same order.
+     */
+    public ArrayList<String> getSampleMessages() {
+        return sampleMessages;
+    }
+}
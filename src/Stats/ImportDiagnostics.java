@@ -0,0 +1,336 @@
+package Stats;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Collects what went wrong during an import: how many records were skipped
+ * for each reason, how many values of each column could not be read, and the
+ * first few skipped records. The Model hands it every batch in file order
+ * once the batch has been read, and the PanelMain shows the summary when the
+ * import is done, so dirty files do not flood the console one line at a time.
+ *
+ * If given a file, every skipped record is also written to it exactly as it
+ * was read, after the header of the first file, so that the records can be
+ * fixed and imported again. The batches hand over each record as they read
+ * it, and the file is written on a thread of its own, so writing goes on
+ * while the files are read and the import does not wait on the disk. When
+ * several threads read, their records are written in the order they are
+ * found rather than in file order. The file is opened before the files are
+ * read, and if it cannot be opened or written the records are only left out
+ * of it: the import goes on and the summary says what went wrong.
+ *
+ * @author Christopher Buss
+ */
+public class ImportDiagnostics {
+
+    /**
+     * Why a record was skipped.
+     */
+    public enum Reason {
+
+        TOO_FEW_FIELDS("Too few fields"),
+        UNREADABLE_SOLD_DATE("Unreadable sold date"),
+        UNREADABLE_SOLD_PRICE("Unreadable sold price");
+
+        private final String description;
+
+        private Reason(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    // How many skipped records are kept to be shown, and how many of those
+    // the summary lists.
+    public static final int SAMPLE_SIZE = 100;
+    private static final int SUMMARY_SAMPLE_SIZE = 5;
+    // How many skipped records may be waiting to be written.
+    private static final int QUEUE_SIZE = 1024;
+    // Queued after the last skipped record.
+    private static final String END = new String();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String[] columnNames;
+    private final int[] reasonCounts = new int[Reason.values().length];
+    private final int[] columnErrors;
+    private final List<String> sample = new ArrayList<>();
+    private int records;
+    private int skipped;
+
+    // Writes the skipped records if a file was given.
+    private final File rejectedRowsFile;
+    private final BlockingQueue<String> rejectedRows;
+    private final Thread writer;
+    // Why the skipped records could not be written, if they could not.
+    private volatile IOException error;
+
+    /**
+     * Creates empty diagnostics.
+     *
+     * @param columnNames The name of each column, in ARR_ order.
+     * @param rejectedRowsFile The file to write skipped records to, or null.
+     * @param header The raw header line to start the file with, or null.
+     * @param append Whether to add the skipped records to the end of the file
+     * instead of replacing it.
+     */
+    public ImportDiagnostics(String[] columnNames, File rejectedRowsFile, String header,
+            boolean append) {
+        this.columnNames = columnNames;
+        this.columnErrors = new int[columnNames.length];
+        this.rejectedRowsFile = rejectedRowsFile;
+        if (rejectedRowsFile == null) {
+            rejectedRows = null;
+            writer = null;
+            return;
+        }
+
+        rejectedRows = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final Writer out;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(rejectedRowsFile, append), UTF_8), 1 << 16);
+        } catch (IOException ex) {
+            error = ex;
+            writer = null;
+            return;
+        }
+        if (header != null) {
+            rejectedRows.add(header);
+        }
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeRejectedRows(out);
+            }
+        }, "Writing " + rejectedRowsFile);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Adds what went wrong in a batch.
+     *
+     * @param batch The batch that was read.
+     * @param firstLine The line number of the record before the batch's first
+     * record.
+     * @param fileName The name of the batch's file, or null if only one file
+     * is being read.
+     */
+    public void add(ImportBatch batch, int firstLine, String fileName) {
+
+        records += batch.getLineCount();
+        int[] batchErrors = batch.getColumnErrors();
+        for (int i = 0; i < columnErrors.length; i++) {
+            columnErrors[i] += batchErrors[i];
+        }
+        for (Reason reason : Reason.values()) {
+            reasonCounts[reason.ordinal()] += batch.getSkippedCount(reason);
+            skipped += batch.getSkippedCount(reason);
+        }
+
+        List<Integer> lines = batch.getSampleLines();
+        for (int i = 0; i < lines.size() && sample.size() < SAMPLE_SIZE; i++) {
+            sample.add("Line " + (firstLine + lines.get(i))
+                    + (fileName == null ? "" : " of " + fileName) + ": "
+                    + batch.getSampleMessages().get(i));
+        }
+    }
+
+    /**
+     * Returns whether skipped records are being written to a file.
+     *
+     * @return False if there is no file or it could not be opened.
+     */
+    public boolean isWritingRejectedRows() {
+        return writer != null;
+    }
+
+    /**
+     * Queues the text of a skipped record to be written to the file. Called
+     * by the threads reading the files as they find the records.
+     *
+     * @param row The record exactly as it was read.
+     */
+    public void writeRejectedRow(String row) {
+        if (writer == null || error != null) {
+            return;
+        }
+        try {
+            rejectedRows.put(row);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            error = new IOException("Import was interrupted", ex);
+        }
+    }
+
+    /**
+     * Waits for every skipped record to be written. If they could not be,
+     * getWriteError() says why.
+     */
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            rejectedRows.put(END);
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            error = new IOException("Writing skipped records was interrupted", ex);
+        }
+    }
+
+    /**
+     * Describes what went wrong for the user.
+     *
+     * @return The summary, or an empty string if nothing went wrong.
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        if (skipped > 0) {
+            sb.append(skipped).append(" of ").append(records)
+                    .append(" records could not be imported:\n");
+            for (Reason reason : Reason.values()) {
+                if (reasonCounts[reason.ordinal()] > 0) {
+                    sb.append("    ").append(reason.getDescription()).append(": ")
+                            .append(reasonCounts[reason.ordinal()]).append('\n');
+                }
+            }
+        }
+
+        boolean header = false;
+        for (int i = 0; i < columnErrors.length; i++) {
+            if (columnErrors[i] > 0) {
+                if (!header) {
+                    sb.append("Unreadable values by column:\n");
+                    header = true;
+                }
+                sb.append("    ").append(columnNames[i]).append(": ")
+                        .append(columnErrors[i]).append('\n');
+            }
+        }
+
+        if (!sample.isEmpty()) {
+            sb.append("First records skipped:\n");
+            for (int i = 0; i < Math.min(sample.size(), SUMMARY_SAMPLE_SIZE); i++) {
+                sb.append("    ").append(sample.get(i)).append('\n');
+            }
+        }
+        if (error != null) {
+            sb.append("The skipped records could not be written to ")
+                    .append(rejectedRowsFile).append(": ").append(error.getMessage())
+                    .append('\n');
+        } else if (skipped > 0 && rejectedRowsFile != null) {
+            sb.append("The skipped records were written to ")
+                    .append(rejectedRowsFile).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns whether any record was skipped or any value could not be read.
+     *
+     * @return True if getSummary() has something to say.
+     */
+    public boolean hasErrors() {
+        if (skipped > 0 || error != null) {
+            return true;
+        }
+        for (int count : columnErrors) {
+            if (count > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns why the skipped records could not be written to the file.
+     *
+     * @return The error, or null if they were written or there is no file.
+     */
+    public IOException getWriteError() {
+        return error;
+    }
+
+    /**
+     * Returns the number of records read, including the skipped ones.
+     *
+     * @return The number of records.
+     */
+    public int getRecordCount() {
+        return records;
+    }
+
+    public int getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * Returns how many records were skipped for a reason.
+     *
+     * @param reason The reason.
+     * @return The number of records.
+     */
+    public int getSkippedCount(Reason reason) {
+        return reasonCounts[reason.ordinal()];
+    }
+
+    /**
+     * Returns how many values of each column could not be read.
+     *
+     * @return The counts, indexed by the ARR_ constants.
+     */
+    public int[] getColumnErrors() {
+        return columnErrors;
+    }
+
+    /**
+     * Returns the first SAMPLE_SIZE records skipped, each with its line
+     * number and why it was skipped.
+     *
+     * @return The descriptions in file order.
+     */
+    public List<String> getSample() {
+        return sample;
+    }
+
+    /**
+     * Runs on the writer thread. Writes queued records until the end.
+     */
+    private void writeRejectedRows(Writer out) {
+        try {
+            try {
+                String row;
+                while ((row = rejectedRows.take()) != END) {
+                    out.write(row);
+                    out.write('\n');
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException ex) {
+            error = ex;
+        } catch (InterruptedException ex) {
+            error = new IOException("Writing skipped records was interrupted", ex);
+        }
+
+        // Keep the queue from filling up if writing failed.
+        if (error != null) {
+            rejectedRows.clear();
+        }
+    }
+}
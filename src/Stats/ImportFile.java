@@ -0,0 +1,350 @@
+package Stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One CSV file of an import, and how much of it has been imported so far.
+ * The Model keeps one of these for every file it has imported so that
+ * importing the files again only reads the rows appended to them since.
+ *
+ * Each file has its own columns to read. They are the columns from
+ * config.properties unless the file's header differs from the header of the
+ * first file in the import, in which case each column is found in the file by
+ * its name in the first file's header.
+ *
+ * @author Christopher Buss
+ */
+public class ImportFile {
+
+    // Files at least this big are read on several threads when they are the
+    // only file being read.
+    private static final long PARALLEL_IMPORT_SIZE = 64L << 20;
+
+    private final File file;
+    private final boolean compressed;
+    private int[] columns;
+    // How much of the file has been imported: the number of bytes, their
+    // DatasetSnapshot.checksumPrefix() and the number of records in them, not
+    // counting the header.
+    private long length;
+    private long checksum;
+    private int lineCount;
+    // Where the next read() starts.
+    private long next;
+
+    /**
+     * Creates a file nothing has been imported from yet.
+     *
+     * @param file The CSV file.
+     */
+    public ImportFile(File file) {
+        this.file = file;
+        this.compressed = DecompressingInputStream.isCompressed(file.getName());
+    }
+
+    /**
+     * Checks whether a file is one an import can read, going by its name.
+     *
+     * @param name The name of the file.
+     * @return True for .csv files and compressed files.
+     */
+    public static boolean isCSVFile(String name) {
+        return name.toLowerCase(Locale.ROOT).endsWith(".csv")
+                || DecompressingInputStream.isCompressed(name);
+    }
+
+    /**
+     * Checks whether rows have at most been appended to the file since the
+     * last import, that is whether the file still starts with the bytes that
+     * were imported. If so, the next read() starts at the appended rows. Only
+     * the ends of the imported bytes are read, as in
+     * DatasetSnapshot.checksumPrefix(), so the check costs the same however
+     * many rows have been imported.
+     *
+     * @param available The number of bytes in the file now.
+     * @return False if the file was changed in some other way.
+     * @throws IOException
+     */
+    public boolean isAppendedTo(long available) throws IOException {
+        if (available < length || DatasetSnapshot.checksumPrefix(file, length) != checksum) {
+            return false;
+        }
+        next = findAppendedRows(length, available);
+        return next != -1;
+    }
+
+    /**
+     * Picks up from the snapshot of the file if there is one and rows have at
+     * most been appended to the file since it was saved. If so, the next
+     * read() starts at the appended rows.
+     *
+     * @param configured The CSV columns from config.properties, in ARR_ order.
+     * @param available The number of bytes in the file now.
+     * @return The snapshot, or null if there is none that can be used.
+     * @throws IOException
+     */
+    public DatasetSnapshot readSnapshot(int[] configured, long available) throws IOException {
+        DatasetSnapshot snapshot = DatasetSnapshot.read(file, configured);
+        long start = snapshot == null ? -1
+                : findAppendedRows(snapshot.getSourceLength(), available);
+        if (start == -1) {
+            return null;
+        }
+        columns = configured;
+        length = snapshot.getSourceLength();
+        checksum = snapshot.getSourceChecksum();
+        lineCount = snapshot.getLineCount();
+        next = start;
+        return snapshot;
+    }
+
+    /**
+     * Works out where the rows appended to the file after an import start.
+     * Normally that is where the import stopped, but if the file did not end
+     * with a line break then the next row has to start with one; otherwise
+     * the last row imported has since been changed. Rows cannot be appended
+     * to a compressed file, so one can only be picked up if it is unchanged.
+     *
+     * @param imported The number of bytes that were imported.
+     * @param available The number of bytes in the file now.
+     * @return The offset of the first appended row, or -1 if rows were not
+     * simply appended.
+     */
+    private long findAppendedRows(long imported, long available) throws IOException {
+        if (imported == 0 || imported == available) {
+            return imported;
+        }
+        if (compressed) {
+            return -1;
+        }
+
+        byte[] bytes = new byte[3];
+        int n;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(imported - 1);
+            n = raf.read(bytes, 0, (int) Math.min(bytes.length, available - imported + 1));
+        } finally {
+            raf.close();
+        }
+
+        if (n < 2) {
+            return -1;
+        } else if (bytes[0] == '\n') {
+            return imported;
+        } else if (bytes[1] == '\n') {
+            return imported + 1;
+        } else if (bytes[1] == '\r') {
+            return n > 2 && bytes[2] == '\n' ? imported + 2 : imported + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Works out which columns to read from the file.
+     *
+     * @param configured The CSV columns from config.properties, in ARR_
+     * order.
+     * @param reference The header the configured columns refer to.
+     * @throws IOException If the file's header is missing one of the columns.
+     */
+    public void mapColumns(int[] configured, String[] reference) throws IOException {
+        String[] header = readHeader();
+        if (Arrays.equals(header, reference)) {
+            columns = configured;
+            return;
+        }
+
+        columns = new int[configured.length];
+        for (int i = 0; i < configured.length; i++) {
+            if (configured[i] >= reference.length) {
+                throw new IOException("Column " + (configured[i] + 1)
+                        + " is missing from the header of the first file");
+            }
+
+            // A name that is in the header more than once is matched by how
+            // many times it came before.
+            String name = reference[configured[i]].trim();
+            int occurrence = 0;
+            for (int j = 0; j < configured[i]; j++) {
+                if (reference[j].trim().equalsIgnoreCase(name)) {
+                    occurrence++;
+                }
+            }
+            columns[i] = -1;
+            for (int j = 0; j < header.length && columns[i] == -1; j++) {
+                if (header[j].trim().equalsIgnoreCase(name) && occurrence-- == 0) {
+                    columns[i] = j;
+                }
+            }
+            if (columns[i] == -1) {
+                throw new IOException("Column \"" + name + "\" is missing from " + file);
+            }
+        }
+    }
+
+    /**
+     * Reads the header of the file.
+     *
+     * @return The names of the columns.
+     * @throws IOException
+     */
+    public String[] readHeader() throws IOException {
+        CSVTokenizer tokenizer = new CSVTokenizer(open(0, file.length(), null));
+        try {
+            String[] header = tokenizer.nextRecord();
+            return header == null ? new String[0] : header;
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    /**
+     * Reads the header of the file exactly as it appears in the file.
+     *
+     * @return The header line without its line break, or null if the file is
+     * empty.
+     * @throws IOException
+     */
+    public String readHeaderText() throws IOException {
+        CSVTokenizer tokenizer = new CSVTokenizer(open(0, file.length(), null));
+        try {
+            return tokenizer.nextRecord() == null ? null : tokenizer.getRecordText();
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    /**
+     * Reads the records of the file that have not been imported yet, up to
+     * the given length. A compressed file is always read as a whole.
+     *
+     * @param to The offset after the last record to read.
+     * @param parallel Whether a large file may be read on several threads.
+     * @param tally If not null, the records are tallied into this instead of
+     * being kept.
+     * @param diagnostics The diagnostics to write the records that cannot be
+     * read to as they are found, or null.
+     * @param progress The progress of the import to add to, or null.
+     * @return The batches holding the records read, in file order.
+     * @throws IOException
+     */
+    public List<ImportBatch> read(long to, boolean parallel, ReportTally tally,
+            ImportDiagnostics diagnostics, ImportProgress progress) throws IOException {
+
+        long from = next;
+
+        // The first import of a file has to skip its header.
+        boolean skipHeader = length == 0;
+
+        if (parallel && !compressed && to - from >= PARALLEL_IMPORT_SIZE
+                && Runtime.getRuntime().availableProcessors() > 1) {
+            return new ParallelImporter(columns, tally, diagnostics, progress)
+                    .read(file.getPath(), from, to, skipHeader);
+        }
+
+        // Tokenizer to read the records of the file. It takes care of commas
+        // and line breaks inside of quotes and strips the quotes from the
+        // fields.
+        CSVTokenizer tokenizer = new CSVTokenizer(open(from, to, progress));
+        try {
+            if (skipHeader) {
+                tokenizer.nextRecord();
+            }
+
+            // A compressed file adds the bytes it reads to the progress
+            // itself, so the batch only adds the records.
+            ImportBatch batch = new ImportBatch(columns, tally == null ? null : tally.copy(),
+                    diagnostics);
+            batch.read(tokenizer, compressed && progress != null
+                    ? progress.withoutBytes() : progress);
+            if (tally != null) {
+                batch.addTallyTo(tally);
+            }
+            List<ImportBatch> batches = new ArrayList<>();
+            batches.add(batch);
+            return batches;
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    /**
+     * Hashes the file up to the given length, for imported() to record. Done
+     * before the imported data starts being replaced, so that nothing has to
+     * be read from the file after that.
+     *
+     * @param imported The number of bytes of the file read.
+     * @return The DatasetSnapshot.checksumPrefix() of them.
+     * @throws IOException
+     */
+    public long checksumPrefix(long imported) throws IOException {
+        return DatasetSnapshot.checksumPrefix(file, imported);
+    }
+
+    /**
+     * Records that the file has been imported up to the given length. Must
+     * follow isAppendedTo(), readSnapshot() or the first read().
+     *
+     * @param imported The number of bytes of the file now imported.
+     * @param records The number of records read since the last import.
+     * @param checksum The checksumPrefix() of the bytes now imported.
+     */
+    public void imported(long imported, int records, long checksum) {
+        length = imported;
+        this.checksum = checksum;
+        lineCount += records;
+        next = imported;
+    }
+
+    /**
+     * Returns how many bytes read() will go through to read up to the given
+     * length, for the progress of the import. A compressed file is always
+     * read as a whole, and its progress is the bytes of the compressed file,
+     * as a gzipped file does not record the size it unpacks to past 4GB.
+     *
+     * @param to The offset after the last record to read.
+     * @return The number of bytes.
+     * @throws IOException
+     */
+    public long getBytesToRead(long to) throws IOException {
+        if (compressed) {
+            return file.length();
+        }
+        return to - next;
+    }
+
+    private InputStream open(long from, long to, ImportProgress progress) throws IOException {
+        if (compressed) {
+            return new DecompressingInputStream(file.getPath(), progress);
+        }
+        return new RangeInputStream(file.getPath(), from, to);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int[] getColumns() {
+        return columns;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+}
@@ -0,0 +1,131 @@
+package Stats;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks how far an import has got, and lets the user cancel it. The threads
+ * reading the files add to it as they go while the GUI reads it from the
+ * Event Dispatch Thread, so all of its state is safe to share.
+ *
+ * Progress is measured in bytes of CSV text read against the size of the
+ * text to read. For a compressed file it is the bytes of the compressed file
+ * read against its size.
+ *
+ * @author Christopher Buss
+ */
+public class ImportProgress {
+
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong recordsRead = new AtomicLong();
+    private volatile long bytesToRead;
+    private volatile long started = System.nanoTime();
+    private volatile boolean cancelled;
+
+    /**
+     * Sets how many bytes there are to read and starts timing the import.
+     *
+     * @param bytes The number of bytes.
+     */
+    public void start(long bytes) {
+        bytesToRead = bytes;
+        started = System.nanoTime();
+    }
+
+    /**
+     * Adds to what has been read.
+     *
+     * @param bytes The number of bytes read since the last call.
+     * @param records The number of records read since the last call.
+     */
+    public void add(long bytes, long records) {
+        bytesRead.addAndGet(bytes);
+        recordsRead.addAndGet(records);
+    }
+
+    /**
+     * Returns a progress that adds the records read to this one but not the
+     * bytes, for a reader whose bytes are counted some other way, such as
+     * those of a compressed file.
+     *
+     * @return The progress, which is cancelled along with this one.
+     */
+    public ImportProgress withoutBytes() {
+        final ImportProgress parent = this;
+        return new ImportProgress() {
+            @Override
+            public void add(long bytes, long records) {
+                parent.add(0, records);
+            }
+
+            @Override
+            public void cancel() {
+                parent.cancel();
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return parent.isCancelled();
+            }
+
+            @Override
+            public void checkCancelled() throws InterruptedIOException {
+                parent.checkCancelled();
+            }
+        };
+    }
+
+    /**
+     * Asks the import to stop. It stops the next time it checks, and leaves
+     * the data that was imported before it started.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Throws if the import was cancelled.
+     *
+     * @throws InterruptedIOException If cancel() has been called.
+     */
+    public void checkCancelled() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Import was cancelled");
+        }
+    }
+
+    /**
+     * Returns how much of the import is done.
+     *
+     * @return The percentage, 0 to 100.
+     */
+    public int getPercentDone() {
+        long total = bytesToRead;
+        if (total <= 0) {
+            return 0;
+        }
+        return (int) Math.min(100, bytesRead.get() * 100 / total);
+    }
+
+    public long getRecordsRead() {
+        return recordsRead.get();
+    }
+
+    /**
+     * Returns the number of records read per second since the import
+     * started.
+     *
+     * @return The rate, or 0 before any time has passed.
+     */
+    public long getRecordsPerSecond() {
+        long nanos = System.nanoTime() - started;
+        if (nanos <= 0) {
+            return 0;
+        }
+        return (long) (recordsRead.get() * 1e9 / nanos);
+    }
+}
@@ -3,6 +3,7 @@ package Stats;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -13,8 +14,16 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.DefaultListModel;
 
@@ -34,6 +43,11 @@ public class Model {
     private static Model model = new Model();
     // DefaultListModels are used to populate the JLists in the GUIs.
     private DefaultListModel<String> countiesAndMunicipalities;
+    // The distinct cleaned municipality/county pairs behind
+    // countiesAndMunicipalities, and the cleaned form of every municipality
+    // and county name seen so far.
+    private final PairIndex municipalitiesAndCounties = new PairIndex();
+    private final HashMap<String, String> cleanedNames = new HashMap<>();
     private DefaultListModel<String> reports;
     // The key is the name of the report and the DefaultListModel
     // holds the rules in the report as strings.
@@ -43,12 +57,28 @@ public class Model {
     private HashMap<String, ArrayList<ArrayList<String>>> rulesData;
     // Holds the currently selected report in PanelRule.
     private String selectedReport;
+    // The bucket scheme each report names in the rule file, if any.
+    private HashMap<String, String> reportBucketSchemes = new HashMap<>();
     // The file locations given by the user.
     private String csvFileLocation;
     private String ruleFileLocation;
-    // Holds all of the entries in the given .csv file. The key is "dd/yyyy".
-    // Entries are grouped together based on their date.
-    private HashMap<String, ArrayList<String>> data;
+    // Holds all of the entries in the given .csv file, stored by column and
+    // ordered by the month they sold in.
+    private Dataset dataset;
+    // The entries added up by month, "where" values and price range, which
+    // the reports are tallied from.
+    private DataCube cube;
+    // What the last import read: the columns from config.properties and how
+    // much of each file. Used to import only the rows appended since.
+    private int[] importedColumns;
+    private LinkedHashMap<File, ImportFile> importedFiles = new LinkedHashMap<>();
+    // Counts the changes to the imported data, and which of them the Swing
+    // models were last filled from.
+    private int importedData;
+    private int publishedData;
+    // What went wrong the last time the CSV files were read, or null if they
+    // have not been.
+    private ImportDiagnostics importDiagnostics;
     // Holds the possible "equals" values in a dropdown menu.
     private HashMap<Integer, DefaultComboBoxModel<String>> equalsDropdown = new HashMap<>();
     // Constants for possible rules. These are the "wheres" of the rules.
@@ -81,37 +111,49 @@ public class Model {
     private static int sellingAgency;
     private static int bodyOfWater;
     private static int condominiumName;
+    private static String rejectedRowsFile;
+    // The bucket schemes from config.properties by name, always including
+    // Default, and the one reports use unless their rules name another.
+    private static Map<String, BucketScheme> bucketSchemes;
+    private static BucketScheme defaultBucketScheme;
+    // Bucket schemes are set as "Buckets.Name=Sold Price: 0, 60000, ...",
+    // and "Buckets" in config.properties or a rule file names the one to use.
+    private static final String BUCKETS = "Buckets";
+    // How many months back each period's comparisons are, as set by
+    // "Comparisons=12, 24" in config.properties. The year before by default.
+    // ReportPeriod.PREVIOUS, written "previous", is the run of months right
+    // before each period.
+    private static int[] comparisons;
+    private static final String COMPARISONS = "Comparisons";
+    // What was wrong with config.properties, or null if nothing was.
+    private static String configurationError;
+    // How far a rule file is read ahead when looking for a report's scheme.
+    private static final int RULE_LINE_LIMIT = 1 << 16;
     
-    final int ARR_LISTING_COMPANY_NAME = 0;
-    final int ARR_PROPERTY_TYPE = 1;
-    final int ARR_DAYS_ON_MARKET = 2;
-    final int ARR_SOLD_DATE = 3;
-    final int ARR_LIST_PRICE = 4;
-    final int ARR_SOLD_PRICE = 5; 
-    final int ARR_MUNICIPALITY = 6;
-    final int ARR_COUNTY = 7;
-    final int ARR_ZIP_CODE = 8;
-    final int ARR_SELLING_COMPANY_NAME = 9;
-    final int ARR_BODY_OF_WATER = 10;
-    final int ARR_CONDO_NAME = 11;
+    static final int ARR_LISTING_COMPANY_NAME = 0;
+    static final int ARR_PROPERTY_TYPE = 1;
+    static final int ARR_DAYS_ON_MARKET = 2;
+    static final int ARR_SOLD_DATE = 3;
+    static final int ARR_LIST_PRICE = 4;
+    static final int ARR_SOLD_PRICE = 5; 
+    static final int ARR_MUNICIPALITY = 6;
+    static final int ARR_COUNTY = 7;
+    static final int ARR_ZIP_CODE = 8;
+    static final int ARR_SELLING_COMPANY_NAME = 9;
+    static final int ARR_BODY_OF_WATER = 10;
+    static final int ARR_CONDO_NAME = 11;
+    // The config.properties name of each ARR_ column.
+    private static final String[] ARR_NAMES = {
+        "Agency Name", "Property Type", "Days on Market", "Sold Date",
+        "List Price", "Sold Price", "Municipality", "County", "Zip Code",
+        "Selling Agency", "Body of Water", "Condominium Name"
+    };
+    // Where each stat of a month is kept, as described in addSale().
+    static final int STAT_SIDES = 0;
+    static final int STAT_SALES = 1;
+    static final int STAT_MONEY = 2;
+    static final int STAT_BUCKETS = 3;
     
-    /**
-     * Adds to the arrays that will populate the "equals" JComboBox.
-     *
-     * @param where The integer representing the "where".
-     * @param equals The "equals" that the where is to be checked against.
-     */
-    public void addToEqualsDropdown(int where, String equals) {
-        DefaultComboBoxModel<String> arr;
-        arr = equalsDropdown.get(where);
-        if (arr.getIndexOf(equals) != -1) {
-            equalsDropdown.put(where, arr);
-        } else {
-            arr.addElement(equals);
-            equalsDropdown.put(where, arr);
-        }
-    }
-
     /**
      * Called to retrieve an array to fill the "equals" JComboBox.
      *
@@ -123,22 +165,24 @@ public class Model {
     }
 
     /**
-     * Alphabetically sorts the contents of equalsDropdown.
+     * Fills the "equals" dropdowns with the values imported for each "where",
+     * sorted alphabetically. The values are the dataset's dictionary for the
+     * "where", so nothing has to be looked up while importing and each
+     * dropdown is only filled once an import is done.
      */
-    private void sortEqualsDropdownArrays() {
+    private void publishEqualsDropdownArrays() {
         for (int i = 0; i < NUM_OF_OPTIONS; i++) {
-            ArrayList<String> arrList = new ArrayList<>();
+            ValueDictionary dictionary = dataset.getDictionary(i);
             DefaultComboBoxModel<String> combo = equalsDropdown.get(i);
-            String[] arr = new String[combo.getSize()];
-            for (int j = 0; j < arr.length; j++) {
-                arr[j] = combo.getElementAt(j);
+            String[] arr = new String[dictionary.size()];
+            for (int code = 0; code < arr.length; code++) {
+                arr[code] = dictionary.getValue(code);
             }
             Arrays.sort(arr);
             combo.removeAllElements();
-            for (Object str : arr) {
-                combo.addElement((String) str);
+            for (String str : arr) {
+                combo.addElement(str);
             }
-            equalsDropdown.put(i, combo);
         }
     }
 
@@ -152,13 +196,18 @@ public class Model {
         rulesData = new HashMap<>();
         csvFileLocation = "";
         ruleFileLocation = "";
-        data = new HashMap();
+        dataset = new Dataset();
         for (int i = 0; i < NUM_OF_OPTIONS; i++) {
             equalsDropdown.put(i, new DefaultComboBoxModel<String>());
         }
         
         prop = new Properties();
-        
+
+        // Set up front, so that they are there even if config.properties
+        // cannot be read.
+        rejectedRowsFile = "";
+        useDefaultReportSettings();
+
         try {
          
             // Create the default config.properties file if the config.properties
@@ -171,6 +220,17 @@ public class Model {
 
         } catch(IOException io) {
             io.printStackTrace();
+            configurationError = "config.properties could not be read: " + io.getMessage();
+        } catch (IllegalArgumentException ex) {
+
+            // The window still opens with the built-in bucket scheme and
+            // comparison, and tells the user what was wrong.
+            String problem = ex instanceof NumberFormatException
+                    ? "a column setting is not a number (" + ex.getMessage() + ")"
+                    : ex.getMessage();
+            configurationError = "config.properties could not be used: " + problem
+                    + "\nThe reports use the Default bucket scheme and the year before.";
+            useDefaultReportSettings();
         } finally {
             if (output != null) {
                 try {
@@ -180,6 +240,7 @@ public class Model {
                 }
             }
         }
+        cube = new DataCube(dataset, companyProperty, bucketSchemes.values());
     }
         
     /**
@@ -205,16 +266,30 @@ public class Model {
         prop.setProperty("Zip Code", "11");
         prop.setProperty("Body of Water", "12");
         prop.setProperty("Condominium Name", "13");
+        prop.setProperty("Rejected Rows File", "");
         
         // Save the data
         prop.store(output, null);
     }
 
+    /**
+     * Sets the bucket schemes to the built-in Default only, and the
+     * comparisons to the year before.
+     */
+    private static void useDefaultReportSettings() {
+        bucketSchemes = new LinkedHashMap<>();
+        bucketSchemes.put(BucketScheme.getDefault().getName(), BucketScheme.getDefault());
+        defaultBucketScheme = BucketScheme.getDefault();
+        comparisons = new int[] {12};
+    }
+
     /**
      * Loads the config.properties file's values into memory
+     *
+     * @throws IllegalArgumentException If a value cannot be used.
      */
     private void loadPropertiesFile() throws IOException {
-        
+
         if (input == null) {
             input = new FileInputStream(PROPERTIES_FILE);
         }
@@ -227,7 +302,10 @@ public class Model {
         agencyName = Integer.parseInt(prop.getProperty("Agency Name")) - 1;
         sellingAgency = Integer.parseInt(prop.getProperty("Selling Agency")) - 1;
         propertyType = Integer.parseInt(prop.getProperty("Property Type")) - 1;
-//        daysOnMarket = Integer.parseInt(prop.getProperty("Days on Market")) - 1;
+        // Days on market is optional. Without it the first column is read in
+        // its place, which is never used as no scheme may split on it.
+        String days = prop.getProperty("Days on Market", "").trim();
+        daysOnMarket = days.isEmpty() ? 0 : Integer.parseInt(days) - 1;
         soldDate = Integer.parseInt(prop.getProperty("Sold Date")) - 1;
         listPrice = Integer.parseInt(prop.getProperty("List Price")) - 1;
         soldPrice = Integer.parseInt(prop.getProperty("Sold Price")) - 1;
@@ -236,8 +314,78 @@ public class Model {
         zipCode = Integer.parseInt(prop.getProperty("Zip Code")) - 1;
         bodyOfWater = Integer.parseInt(prop.getProperty("Body of Water")) - 1;
         condominiumName = Integer.parseInt(prop.getProperty("Condominium Name")) - 1;
+        rejectedRowsFile = prop.getProperty("Rejected Rows File", "").trim();
+
+        // A scheme named Default replaces the built-in one.
+        List<String> keys = new ArrayList<>(prop.stringPropertyNames());
+        Collections.sort(keys);
+        for (String key : keys) {
+            if (key.startsWith(BUCKETS + ".")) {
+                String name = key.substring(BUCKETS.length() + 1).trim();
+                BucketScheme scheme = BucketScheme.parse(name, prop.getProperty(key));
+                if (scheme.getColumn() == BucketScheme.DAYS_ON_MARKET && days.isEmpty()) {
+                    throw new IllegalArgumentException("Bucket scheme " + name
+                            + " splits on Days on Market, which is not set.");
+                }
+                bucketSchemes.put(name, scheme);
+            }
+        }
+        String name = prop.getProperty(BUCKETS, BucketScheme.getDefault().getName()).trim();
+        defaultBucketScheme = bucketSchemes.get(name);
+        if (defaultBucketScheme == null) {
+            throw new IllegalArgumentException("Bucket scheme " + name + " is not defined.");
+        }
+
+        // Unlike the bucket schemes, a bad Comparisons leaves the rest of the
+        // settings as they are.
+        try {
+            comparisons = parseComparisons(prop.getProperty(COMPARISONS, "12"));
+        } catch (IllegalArgumentException ex) {
+            comparisons = new int[] {12};
+            configurationError = "config.properties could not be used: " + ex.getMessage()
+                    + "\nThe reports are compared with the year before.";
+        }
+    }
+
+    /**
+     * Reads the comparisons of config.properties, such as "12, 24" or
+     * "previous, 12".
+     *
+     * @param value The value of Comparisons.
+     * @return How many months back each comparison is, or
+     * ReportPeriod.PREVIOUS.
+     * @throws IllegalArgumentException If a comparison is neither a number of
+     * months nor "previous".
+     */
+    private static int[] parseComparisons(String value) {
+        String[] months = value.split(",");
+        int[] parsed = new int[months.length];
+        for (int i = 0; i < months.length; i++) {
+            String month = months[i].trim();
+            if (month.equalsIgnoreCase("previous")) {
+                parsed[i] = ReportPeriod.PREVIOUS;
+                continue;
+            }
+            long back = NumberParser.parseLong(month);
+            if (back < 1 || back > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(COMPARISONS
+                        + " must be the number of months back of each comparison, or previous.");
+            }
+            parsed[i] = (int) back;
+        }
+        return parsed;
     }
     
+    /**
+     * Returns what was wrong with config.properties when it was loaded. The
+     * settings that could not be used were left at their defaults.
+     *
+     * @return The message to show the user, or null if nothing was wrong.
+     */
+    public String getConfigurationError() {
+        return configurationError;
+    }
+
     /**
      * Instead of instantiating, outside classes grab the existing instance.
      *
@@ -248,113 +396,396 @@ public class Model {
     }
 
     /**
-     * Imports entries from the CSV file given by csvFileLocation. The entries
-     * are imported into memory for quicker access; also, the counties and
-     * municipalities of each entry are read into countiesAndMunicipalities in
-     * order to populate the JList on PanelMain.
+     * Returns the CSV columns that are read during an import, as resolved from
+     * config.properties. The columns are in the same order as the ARR_
+     * constants, so a record read with them can be indexed by those constants.
+     *
+     * @return The zero-based columns to read from the CSV file.
+     */
+    private int[] getImportColumns() {
+        int[] columns = new int[12];
+        columns[ARR_LISTING_COMPANY_NAME] = agencyName;
+        columns[ARR_PROPERTY_TYPE] = propertyType;
+        columns[ARR_DAYS_ON_MARKET] = daysOnMarket;
+        columns[ARR_SOLD_DATE] = soldDate;
+        columns[ARR_LIST_PRICE] = listPrice;
+        columns[ARR_SOLD_PRICE] = soldPrice;
+        columns[ARR_MUNICIPALITY] = municipality;
+        columns[ARR_COUNTY] = county;
+        columns[ARR_ZIP_CODE] = zipCode;
+        columns[ARR_SELLING_COMPANY_NAME] = sellingAgency;
+        columns[ARR_BODY_OF_WATER] = bodyOfWater;
+        columns[ARR_CONDO_NAME] = condominiumName;
+        return columns;
+    }
+
+    /**
+     * Imports entries from the CSV files given by csvFileLocation. The
+     * entries are imported into memory for quicker access; also, the counties
+     * and municipalities of each entry are read into countiesAndMunicipalities
+     * in order to populate the JList on PanelMain.
+     *
+     * Several files, or a directory of them, can be imported at once. They
+     * are read in parallel, one file per thread, and merged in the order
+     * given. A file whose header differs from the first file's has its
+     * columns found by name.
+     *
+     * Importing the same files again only reads the rows that were appended
+     * to them since, along with any files that were added. If anything before
+     * the appended rows changed, or a file is no longer listed, everything
+     * that was imported before is replaced.
+     *
+     * A single large file is read in parallel by a ParallelImporter; the
+     * result is the same as reading it one line at a time. Gzipped and zipped
+     * files are read through a DecompressingInputStream without being
+     * unpacked to disk. After a single file is imported a DatasetSnapshot is
+     * saved next to it, and a later import of the file, even after
+     * restarting, loads that instead of parsing the rows it holds.
+     *
+     * The JList and "equals" dropdowns are filled before this returns, so it
+     * must be called on the Event Dispatch Thread while they are shown.
      *
      * @throws IOException
      */
     public void importCSVDataFromFile() throws IOException {
+        importCSVDataFromFile(new ImportProgress());
+        publishImportedData();
+    }
 
-        // BufferedReader to read file.
-        BufferedReader br = new BufferedReader(new FileReader(csvFileLocation));
+    /**
+     * Imports entries from the CSV files given by csvFileLocation as
+     * importCSVDataFromFile() does, but without touching any Swing model, so
+     * that it can run on a worker thread while the GUI stays responsive. Once
+     * it returns, publishImportedData() has to be called on the Event
+     * Dispatch Thread to show the result.
+     *
+     * The import can be cancelled through the progress until the files have
+     * been read. If it is cancelled or fails, what was imported before it is
+     * left untouched: nothing is replaced until the files have been read.
+     *
+     * @param progress Tracks the bytes and records read, and whether the
+     * user cancelled the import.
+     * @throws IOException
+     * @throws java.io.InterruptedIOException If the import was cancelled.
+     */
+    public void importCSVDataFromFile(ImportProgress progress) throws IOException {
 
-        // Used for reading and spliting the entries.
-        String line;
-        String[] splitLine;
-        ArrayList<String> arr;
+        List<File> files = getCSVFiles();
 
-        // Skip header of file.
-        br.readLine();
+        // Only the columns named in config.properties are ever read.
+        int[] columns = getImportColumns();
 
-        int lineNumber = 0;
-        
-        
-        // Keep reading lines until there is nothing to read.
-        while ((line = br.readLine()) != null) {
+        // Rows written to the files from here on are left for the next
+        // import.
+        HashMap<File, Long> lengths = new HashMap<>();
+        for (File file : files) {
+            lengths.put(file, file.length());
+        }
 
-            lineNumber++;
-            
-            // TODO: Line read errors should be descriptive for user rather
-            // than just skipping the line.
-            try {
-                // Whenever a comma is found, read forward to make sure that there
-                // is either an even amount of quotes or no quotes at all. This
-                // ensures that commas inside of quotes are not split.
-                splitLine = line.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
-                
-                // Pass the municipality and county.
-                addMunicipalityAndCounty(
-                        splitLine[municipality].replaceAll("\"", ""),
-                        splitLine[county].replaceAll("\"", ""));
-                
-                String date = cleanDate(
-                        splitLine[soldDate].replaceAll("\"", ""));
-
-                // Use mm/yyyy as key.
-                if (data.containsKey(date)) {
-                    arr = data.get(date);
-                } else {
-                    arr = new ArrayList<>();
+        // Carry on from the last import if every file it read is still listed
+        // and still starts with what was read from it.
+        boolean appended = Arrays.equals(columns, importedColumns)
+                && files.containsAll(importedFiles.keySet());
+        for (ImportFile importFile : importedFiles.values()) {
+            if (!appended) {
+                break;
+            }
+            appended = importFile.isAppendedTo(lengths.get(importFile.getFile()));
+        }
+
+        // Otherwise everything is read again, into a new set of files. The
+        // old data is only replaced once the new files have been read.
+        LinkedHashMap<File, ImportFile> readFiles = appended
+                ? importedFiles : new LinkedHashMap<File, ImportFile>();
+
+        // A snapshot left by an earlier import of a single file saves
+        // parsing the rows it holds.
+        DatasetSnapshot snapshot = null;
+        if (!appended && files.size() == 1) {
+            ImportFile importFile = new ImportFile(files.get(0));
+            snapshot = importFile.readSnapshot(columns, lengths.get(importFile.getFile()));
+            if (snapshot != null) {
+                readFiles.put(importFile.getFile(), importFile);
+            }
+        }
+
+        // Find the files that have something new to read, working out the
+        // columns of the ones that have not been imported before.
+        String[] reference = null;
+        List<ImportFile> toRead = new ArrayList<>();
+        List<Long> ends = new ArrayList<>();
+        long bytesToRead = 0;
+        for (File file : files) {
+            ImportFile importFile = readFiles.get(file);
+            if (importFile == null) {
+                if (reference == null) {
+                    reference = new ImportFile(files.get(0)).readHeader();
                 }
+                importFile = new ImportFile(file);
+                importFile.mapColumns(columns, reference);
+            }
+            if (lengths.get(file) > importFile.getLength()) {
+                toRead.add(importFile);
+                ends.add(lengths.get(file));
+                bytesToRead += importFile.getBytesToRead(lengths.get(file));
+            }
+        }
 
-                // Reassemble only the relevant data for the entry back into a 
-                // string and add it to the ArrayList whose key is the date of
-                // the entry.            
-                arr.add(splitLine[agencyName] + "," +                         // Listing Company Name- 0
-                        splitLine[propertyType].replaceAll("\"", "") + "," +  // Property Type       - 1
-                        splitLine[daysOnMarket].replaceAll("\"", "") + "," +  // DOM                 - 2
-                        date + "," +                                          // Sold Date           - 3
-                        splitLine[listPrice].replaceAll("\"", "") + "," +     // List Price          - 4
-                        splitLine[soldPrice].replaceAll("\"", "") + "," +     // Sold Price          - 5
-                        splitLine[municipality].replaceAll("\"", "") + "," +  // Municipality        - 6
-                        splitLine[county].replaceAll("\"", "") + "," +        // County              - 7
-                        splitLine[zipCode].replaceAll("\"", "") + "," +       // Zip Code            - 8
-                        splitLine[sellingAgency] + "," +                      // Selling Company Name- 9
-                        splitLine[bodyOfWater].replaceAll("\"", "") + "," +   // Body of Water       - 10
-                        splitLine[condominiumName].replaceAll("\"", ""));     // Condo Name          - 11
-                data.put(date, arr);
-
-                // Add them to the "equals" dropbox for later use.
-                addToEqualsDropdown(COUNTY, splitLine[county].replaceAll("\"", ""));
-                addToEqualsDropdown(MUNICIPALITY, splitLine[municipality].replaceAll("\"", ""));
-                addToEqualsDropdown(ZIP_CODE, splitLine[zipCode].replaceAll("\"", ""));
-                addToEqualsDropdown(BODY_OF_WATER, splitLine[bodyOfWater].replaceAll("\"", ""));
-                addToEqualsDropdown(CONDO_NAME, splitLine[condominiumName].replaceAll("\"", ""));
-                addToEqualsDropdown(PROPERTY_TYPE, splitLine[propertyType].replaceAll("\"", ""));
-            } catch (Exception ex) {
-                System.out.println(ex.getMessage() + " at line " + lineNumber + ":");
-                System.out.println(line);
+        // Skipped records are written while the files are read. An import
+        // that carries on from the last one adds them to the rejected rows
+        // file, and one with nothing to read leaves the file as it is.
+        ImportDiagnostics diagnostics = createDiagnostics(files, !toRead.isEmpty(),
+                appended || snapshot != null);
+        List<List<ImportBatch>> results;
+        List<Long> checksums = new ArrayList<>();
+        try {
+            progress.start(bytesToRead);
+            results = readFiles(toRead, ends, null, diagnostics, progress);
+            progress.checkCancelled();
+
+            // Hash what was read of each file now, as nothing may be read
+            // once the old data starts being replaced.
+            for (int i = 0; i < toRead.size(); i++) {
+                checksums.add(toRead.get(i).checksumPrefix(ends.get(i)));
             }
+        } finally {
+            diagnostics.close();
         }
-        
+
+        // Nothing can be cancelled or go wrong from here on. If the skipped
+        // records could not be written, the diagnostics only say so.
+        boolean changed = false;
+        if (!appended) {
+            clearImportedData();
+            importedColumns = columns;
+            if (snapshot != null) {
+                mergeSnapshot(snapshot);
+                changed = true;
+            }
+        }
+
+        // Merge the batches in file order.
+        importDiagnostics = diagnostics;
+        for (int i = 0; i < toRead.size(); i++) {
+            ImportFile importFile = toRead.get(i);
+            String label = files.size() > 1 ? importFile.getFile().getName() : null;
+            int lineNumber = importFile.getLineCount();
+            for (ImportBatch batch : results.get(i)) {
+                mergeBatch(batch, lineNumber, label);
+                lineNumber += batch.getLineCount();
+            }
+            importFile.imported(ends.get(i), lineNumber - importFile.getLineCount(),
+                    checksums.get(i));
+            changed = true;
+        }
+
+        // Keep the files in the order they were listed.
+        for (ImportFile importFile : toRead) {
+            readFiles.put(importFile.getFile(), importFile);
+        }
+        LinkedHashMap<File, ImportFile> ordered = new LinkedHashMap<>();
+        for (File file : files) {
+            ordered.put(file, readFiles.get(file));
+        }
+        importedFiles = ordered;
+
+        if (!changed) {
+            return;
+        }
+
         // Sort after all of the data has been entered.
-        sortAlphabetically(countiesAndMunicipalities);
-        sortEqualsDropdownArrays();
+        dataset.sort();
+        cube.sort();
+        importedData++;
+
+        ImportFile single = importedFiles.get(files.get(0));
+        if (files.size() == 1 && single.getLength() > 0) {
+            try {
+                new DatasetSnapshot(dataset, municipalitiesAndCounties,
+                        single.getLength(), single.getChecksum(), single.getLineCount())
+                        .write(single.getFile(), columns);
+            } catch (IOException ex) {
+                // The import itself worked; the next one will just be slower.
+                ex.printStackTrace();
+            }
+        }
     }
 
     /**
-     * Takes a date in the format mm/dd/yyyy or yyyy-mm-dd and converts it to
-     * the format mm/yyyy.
-     *
-     * @param date The date to be cleaned.
-     * @return The singleton Model.
+     * Fills the JList of municipalities and counties and the "equals"
+     * dropdowns with what has been imported. Must be called on the Event
+     * Dispatch Thread after importCSVDataFromFile(ImportProgress) has
+     * worked. Does nothing if the imported data has not changed since the
+     * last call.
      */
-    public String cleanDate(String date) {
-        if (date.contains("-")) {
-            return date.substring(5, 7) + "/" + date.substring(0, 4);
-        } else {
-            date = date.replaceAll("/.*/", "/");
+    public void publishImportedData() {
+        if (publishedData == importedData) {
+            return;
+        }
+        publishCountiesAndMunicipalities();
+        publishEqualsDropdownArrays();
+        publishedData = importedData;
+    }
 
-            // Prepend a 0 onto the date if the month is less than 10.
-            // Example: turn 1/2012 into 01/2012.
-            if (date.length() < 7) {
-                return "0" + date;
+    /**
+     * Returns the CSV files named by csvFileLocation. It holds one or more
+     * paths separated by File.pathSeparator, each of a file or of a directory
+     * whose CSV files are all imported in order of name.
+     *
+     * @return The files, each listed once.
+     * @throws FileNotFoundException If a path does not exist or there are no
+     * files.
+     */
+    private List<File> getCSVFiles() throws FileNotFoundException {
+        LinkedHashSet<File> files = new LinkedHashSet<>();
+        for (String location : csvFileLocation.split(File.pathSeparator)) {
+            if (location.trim().isEmpty()) {
+                continue;
+            }
+            File file = new File(location.trim()).getAbsoluteFile();
+            if (file.isDirectory()) {
+                File[] children = file.listFiles();
+                Arrays.sort(children);
+                for (File child : children) {
+                    if (child.isFile() && ImportFile.isCSVFile(child.getName())) {
+                        files.add(child);
+                    }
+                }
+            } else if (file.isFile()) {
+                files.add(file);
             } else {
-                return date;
+                throw new FileNotFoundException(location);
             }
         }
+        if (files.isEmpty()) {
+            throw new FileNotFoundException(csvFileLocation);
+        }
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * Reads the unread records of several files. Each file is read on a
+     * thread of its own; a single file may be read on several.
+     *
+     * @param importFiles The files to read.
+     * @param ends The offset to read each file up to.
+     * @param tally If not null, the records are tallied into this instead of
+     * being kept.
+     * @param diagnostics The diagnostics to write the records that cannot be
+     * read to.
+     * @param progress The progress to add to, or null.
+     * @return The batches read from each file, in file order.
+     * @throws IOException
+     */
+    private List<List<ImportBatch>> readFiles(List<ImportFile> importFiles, List<Long> ends,
+            final ReportTally tally, final ImportDiagnostics diagnostics,
+            final ImportProgress progress) throws IOException {
+
+        if (importFiles.size() == 1) {
+            List<List<ImportBatch>> results = new ArrayList<>();
+            results.add(importFiles.get(0).read(ends.get(0), true, tally, diagnostics, progress));
+            return results;
+        }
+
+        List<Callable<List<ImportBatch>>> reads = new ArrayList<>();
+        for (int i = 0; i < importFiles.size(); i++) {
+            final ImportFile importFile = importFiles.get(i);
+            final long end = ends.get(i);
+            reads.add(new Callable<List<ImportBatch>>() {
+                @Override
+                public List<ImportBatch> call() throws IOException {
+                    return importFile.read(end, false, tally, diagnostics, progress);
+                }
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            return ParallelImporter.getAll(pool.invokeAll(reads));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Removes every imported entry, municipality/county pair and "equals"
+     * value.
+     */
+    private void clearImportedData() {
+        dataset.clear();
+        cube.clear();
+        municipalitiesAndCounties.clear();
+        cleanedNames.clear();
+        importedFiles.clear();
+        importedData++;
+    }
+
+    /**
+     * Adds the entries of a batch to data, along with its "equals" values and
+     * municipality/county pairs.
+     *
+     * @param batch The batch to merge.
+     * @param firstLine The line number of the record before the batch's first
+     * record, used to report errors.
+     * @param fileName The name of the batch's file to report errors with, or
+     * null if only one file is being read.
+     */
+    private void mergeBatch(ImportBatch batch, int firstLine, String fileName) {
+
+        importDiagnostics.add(batch, firstLine, fileName);
+
+        PairIndex pairs = batch.getMunicipalitiesAndCounties();
+        for (int i = 0; i < pairs.size(); i++) {
+            addMunicipalityAndCounty(pairs.getFirst(i), pairs.getSecond(i));
+        }
+
+        // The batch's "equals" values come along in its dictionaries.
+        int first = dataset.size();
+        dataset.addAll(batch.getDataset());
+        cube.add(first, dataset.size());
+    }
+
+    /**
+     * Starts collecting what goes wrong while reading the given files. If
+     * config.properties names a rejected rows file, the records that are
+     * skipped are written to it.
+     *
+     * @param files The files about to be read.
+     * @param reading Whether any records are about to be read. If not, the
+     * rejected rows file is left as it is.
+     * @param append Whether to add to the rejected rows file of the last
+     * import, as when only the rows appended since are read.
+     * @return The diagnostics, which must be closed once the files are read.
+     * @throws IOException
+     */
+    private ImportDiagnostics createDiagnostics(List<File> files, boolean reading,
+            boolean append) throws IOException {
+        if (rejectedRowsFile.isEmpty() || !reading) {
+            return new ImportDiagnostics(ARR_NAMES, null, null, false);
+        }
+        File file = new File(rejectedRowsFile);
+        append = append && file.isFile();
+        String header = append ? null : new ImportFile(files.get(0)).readHeaderText();
+        return new ImportDiagnostics(ARR_NAMES, file, header, append);
+    }
+
+    /**
+     * Adds the entries of a snapshot to data, along with its "equals" values
+     * and municipality/county pairs.
+     *
+     * @param snapshot The snapshot to merge.
+     */
+    private void mergeSnapshot(DatasetSnapshot snapshot) {
+
+        // The snapshot's pairs were cleaned when they were first imported.
+        PairIndex pairs = snapshot.getMunicipalitiesAndCounties();
+        for (int i = 0; i < pairs.size(); i++) {
+            municipalitiesAndCounties.add(pairs.getFirst(i), pairs.getSecond(i));
+        }
+
+        int first = dataset.size();
+        dataset.addAll(snapshot.getDataset());
+        cube.add(first, dataset.size());
     }
 
     /**
@@ -377,6 +808,7 @@ public class Model {
         // Clear the current rules in effect.
         rulesData = new HashMap<>();
         rules.clear();
+        reportBucketSchemes.clear();
 
         // BufferedReader to read file.
         BufferedReader br = new BufferedReader(new FileReader(ruleFileLocation));
@@ -408,30 +840,60 @@ public class Model {
                 }
                 lineNumber++;
             }
+
+            // The report may name its bucket scheme on the next line.
+            br.mark(RULE_LINE_LIMIT);
+            line = br.readLine();
+            if (line != null && line.startsWith(BUCKETS + "=")) {
+                reportBucketSchemes.put(selectedReport, line.substring(BUCKETS.length() + 1).trim());
+            } else {
+                br.reset();
+            }
         }
     }
 
     /**
-     * Add the given municipality/county combination to the DefaultListModel.
-     * This is purely aesthetic: there is not functional reason for displaying
-     * the municipalities and counties.
+     * Add the given municipality/county combination to the ones shown in the
+     * JList. This is purely aesthetic: there is not functional reason for
+     * displaying the municipalities and counties. The JList itself is filled
+     * by publishCountiesAndMunicipalities() once an import is done.
      *
      * @param municipality Municipality to add to JList.
      * @param county County to add to JList.
      */
     public void addMunicipalityAndCounty(String municipality, String county) {
+        municipalitiesAndCounties.add(cleanName(municipality), cleanName(county));
+    }
 
-        // Clean input.
-        municipality = cleanInput(municipality);
-        county = cleanInput(county);
-
-        // Format as "Municipality (County)".
-        String entry = municipality + " (" + county + ")";
+    /**
+     * Fills countiesAndMunicipalities with every municipality/county pair
+     * imported, formatted as "Municipality (County)" and sorted
+     * alphabetically.
+     */
+    private void publishCountiesAndMunicipalities() {
+        String[] arr = new String[municipalitiesAndCounties.size()];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = municipalitiesAndCounties.getFirst(i)
+                    + " (" + municipalitiesAndCounties.getSecond(i) + ")";
+        }
+        Arrays.sort(arr);
+        countiesAndMunicipalities.removeAllElements();
+        for (String str : arr) {
+            countiesAndMunicipalities.addElement(str);
+        }
+    }
 
-        // If the entry was not already added, add it.
-        if (countiesAndMunicipalities.indexOf(entry) == -1) {
-            countiesAndMunicipalities.addElement(entry);
+    /**
+     * Cleans a municipality or county name with cleanInput(), remembering the
+     * result so that each distinct name is only cleaned once.
+     */
+    private String cleanName(String str) {
+        String cleaned = cleanedNames.get(str);
+        if (cleaned == null) {
+            cleaned = cleanInput(str);
+            cleanedNames.put(str, cleaned);
         }
+        return cleaned;
     }
 
     /**
@@ -484,7 +946,9 @@ public class Model {
     /**
      * Setter for csvFileLocation.
      *
-     * @param location The absolute path for the CSV file.
+     * @param location The absolute path for the CSV file. It may also be a
+     * gzipped CSV file, a zip file holding one, a directory of them, or
+     * several of these separated by File.pathSeparator.
      */
     public void setcsvFileLocation(String location) {
         csvFileLocation = location;
@@ -524,6 +988,7 @@ public class Model {
         
         // Remove the rules from memory. 
         rulesData.remove(report);
+        reportBucketSchemes.remove(report);
     }
 
     public DefaultListModel<String> getReportsList() {
@@ -641,6 +1106,9 @@ public class Model {
                 }
                 fw.write("\n");
             }
+            if (reportBucketSchemes.containsKey(report)) {
+                fw.write(BUCKETS + "=" + reportBucketSchemes.get(report) + "\n");
+            }
         }
 
         fw.close();
@@ -712,6 +1180,16 @@ public class Model {
         return countiesAndMunicipalities;
     }
 
+    /**
+     * Getter for what went wrong the last time the CSV files were imported or
+     * reported on straight from the files.
+     *
+     * @return The diagnostics, or null if the files have not been read yet.
+     */
+    public ImportDiagnostics getImportDiagnostics() {
+        return importDiagnostics;
+    }
+
     /**
      * Getter for rules.
      *
@@ -724,260 +1202,457 @@ public class Model {
     /**
      * Calls all of the methods for generating reports based on rules.
      *
+     * If nothing has been imported but a CSV file has been chosen, the
+     * reports are tallied straight from the file instead, without keeping
+     * its entries in memory.
+     *
      * @param quarter The selected quarter.
      */
     public void generateReports(int quarter, int baseYear) throws IOException {
-        for (String report : rulesData.keySet()) {
-            generateReport(quarter, report, baseYear);
-        }
+        generateReports(quarter, baseYear, new ReportProgress());
     }
 
     /**
-     * Generate the given report.
+     * Generates every report for a quarter, or the whole year if quarter is
+     * 5, next to the comparisons set in config.properties.
      *
-     * @param quarter The quarter to generate the report for.
-     * @param report The report to generate.
-     * @throws IOException
+     * @param quarter The selected quarter.
+     * @param baseYear The current year of the reports.
+     * @param progress The progress to add each finished report to.
+     * @throws IOException If a report could not be written, or
+     * InterruptedIOException if cancelled.
      */
-    private void generateReport(int quarter, String report, int baseYear) throws IOException {
+    public void generateReports(int quarter, int baseYear,
+            ReportProgress progress) throws IOException {
+        generateReports(quarter, baseYear, copyReportRules(), progress);
+    }
 
-        // Grab the rules to generate the report.
-        ArrayList<ArrayList<String>> arrArr = rulesData.get(report);
+    /**
+     * Generates every report for a quarter, or the whole year if quarter is
+     * 5, from rules that were copied before, as the GUI does so that the
+     * rules can be edited while the reports are generated.
+     *
+     * @param quarter The selected quarter.
+     * @param baseYear The current year of the reports.
+     * @param rules The rules of the reports, from copyReportRules().
+     * @param progress The progress to add each finished report to.
+     * @throws IOException If a report could not be written, or
+     * InterruptedIOException if cancelled.
+     */
+    public void generateReports(int quarter, int baseYear, ReportRules rules,
+            ReportProgress progress) throws IOException {
+        generateReports(Collections.singletonList(new ReportPeriod(
+                DateParser.packMonth(baseYear, getStartMonth(quarter)),
+                DateParser.packMonth(baseYear, getEndMonth(quarter)),
+                getQuarterName(quarter, baseYear), comparisons)), rules, progress);
+    }
 
-        // arrRules holds the "equals" for "where".
-        ArrayList<String> arrRules;
+    /**
+     * Generates every report for any run of months, such as the trailing
+     * twelve months or a fiscal year, next to the comparisons set in
+     * config.properties. The name of each report file ends in the first and
+     * last month, as in All201307-201406.csv.
+     *
+     * @param firstMonth The first month, packed as yyyymm.
+     * @param lastMonth The last month, packed as yyyymm. Must not be before
+     * firstMonth.
+     * @param progress The progress to add each finished report to.
+     * @throws IOException If a report could not be written, or
+     * InterruptedIOException if cancelled.
+     */
+    public void generateReportsForMonths(int firstMonth, int lastMonth,
+            ReportProgress progress) throws IOException {
+        generateReports(Collections.singletonList(new ReportPeriod(firstMonth, lastMonth,
+                firstMonth + "-" + lastMonth, comparisons)), copyReportRules(), progress);
+    }
 
-        ArrayList<String> arrData; // All the properties sold within a mm/yyyy.
-        String[] splitDataEntry; // The individual elements of an entry.
+    /**
+     * Generates every report for each of the given quarters of every year in
+     * a range, as when the reports of past years are made again. The months
+     * of all of them are tallied once, in the same pass, and each period is
+     * then added up from the months in it. The name of each report file ends
+     * in the year and the quarter, as in All2014Q1.csv, or just the year for
+     * the whole year, as in All2014.csv.
+     *
+     * @param firstYear The first current year of the reports.
+     * @param lastYear The last current year of the reports.
+     * @param quarters The quarters to generate, 1 to 4, or 5 for the whole
+     * year.
+     * @param progress The progress to add each finished report to.
+     * @throws IOException If a report could not be written, or
+     * InterruptedIOException if cancelled.
+     */
+    public void backfillReports(int firstYear, int lastYear, int[] quarters,
+            ReportProgress progress) throws IOException {
+        if (lastYear < firstYear) {
+            throw new IllegalArgumentException("The last year is before the first year.");
+        }
+        List<ReportPeriod> periods = new ArrayList<>();
+        for (int year = firstYear; year <= lastYear; year++) {
+            for (int quarter : quarters) {
+                periods.add(new ReportPeriod(
+                        DateParser.packMonth(year, getStartMonth(quarter)),
+                        DateParser.packMonth(year, getEndMonth(quarter)),
+                        year + (quarter < 5 ? "Q" + quarter : ""), comparisons));
+            }
+        }
+        generateReports(periods, copyReportRules(), progress);
+    }
+
+    /**
+     * Generates every report for some periods, each next to its own
+     * comparisons, such as the year before, the quarter before or each of
+     * the last five years.
+     *
+     * Unless there are no imported entries, this is done in one pass over
+     * the cube of the imported entries. Each cell is visited once and rolled
+     * up into every report whose rules it follows. The months of every
+     * period and comparison are tallied at once on a fork-join pool, each of
+     * them once however many periods use it, and then the reports are
+     * written, each to its own file, the same way.
+     *
+     * If cancelled, the reports that have not been started are skipped and
+     * the ones already written are kept.
+     *
+     * @param periods The periods to write the reports for. There must be at
+     * least one.
+     * @param reportRules The rules of the reports, from copyReportRules().
+     * @param progress The progress to add each finished report to.
+     * @throws IOException If a report could not be written, or
+     * InterruptedIOException if cancelled.
+     */
+    public void generateReports(final List<ReportPeriod> periods, ReportRules reportRules,
+            final ReportProgress progress) throws IOException {
+        if (dataset.size() == 0 && importedFiles.isEmpty() && !csvFileLocation.isEmpty()) {
+            generateReportsFromFile(periods, reportRules, progress);
+            return;
+        }
 
-        // date will be the key for the data HashMap.
-        String date = "";
+        final List<String> reportNames = new ArrayList<>(reportRules.getRules().keySet());
+        final List<ArrayList<ArrayList<String>>> rules = new ArrayList<>();
+        final List<BucketScheme> schemes = new ArrayList<>();
+        for (String report : reportNames) {
+            rules.add(reportRules.getRules().get(report));
+            schemes.add(reportRules.getSchemes().get(report));
+        }
+        progress.startReports(reportNames.size() * periods.size());
+
+        final ReportScan scan = new ReportScan(cube, rules, schemes, periods);
+        List<Callable<Void>> scans = new ArrayList<>();
+        for (final int month : scan.getMonths()) {
+            scans.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    progress.checkCancelled();
+                    scan.tallyMonth(month);
+                    return null;
+                }
+            });
+        }
 
-        // Get the current year and the previous year.
-        int currentYear = baseYear;
-        int previousYear = currentYear - 1;
+        // Each report's totals are shared by the files of every period.
+        List<Callable<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < reportNames.size(); i++) {
+            final int report = i;
+            writes.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    MonthlyTotals totals = scan.getTotals(report);
+                    for (ReportPeriod period : periods) {
+                        progress.checkCancelled();
+                        writeReport(reportNames.get(report) + period.getName() + ".csv",
+                                rules.get(report), period, schemes.get(report), totals);
+                        progress.reportFinished(reportNames.get(report) + period.getName());
+                    }
+                    return null;
+                }
+            });
+        }
 
-        // Hold the count for sold properties within a given range within a
-        // given month. Rows represent the months and rows represent the price
-        // range,
-        int[][] currentYearStats = new int[13][14];
-        int[][] previousYearStats = new int[13][14];
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            ParallelImporter.getAll(pool.invokeAll(scans));
+            ParallelImporter.getAll(pool.invokeAll(writes));
+        } finally {
+            pool.shutdown();
+        }
+        progress.checkCancelled();
+    }
 
-        String equals = ""; // Holds the "equals" string.
-        String fileName = ""; // file name of the generated report.
+    /**
+     * Copies the rules and bucket scheme of every report, so that the reports
+     * can be generated from them on another thread. Must be called on the
+     * thread that edits the rules, the Event Dispatch Thread in the GUI.
+     *
+     * @return The copy.
+     */
+    public ReportRules copyReportRules() {
+        return new ReportRules(copyRules(), getBucketSchemes(rulesData.keySet()));
+    }
 
-        // Adjust the starting month and ending month based on the selected
-        // quarter. If quater = 5, then startMonth and endMonth are not changed.
-        int startMonth = 1;
-        int endMonth = 12;
-        switch (quarter) {
-            case 1:
-                startMonth = 1;
-                endMonth = 3;
-                break;
-            case 2:
-                startMonth = 4;
-                endMonth = 6;
-                break;
-            case 3:
-                startMonth = 7;
-                endMonth = 9;
-                break;
-            case 4:
-                startMonth = 10;
-                endMonth = 12;
-                break;
+    /**
+     * Copies the rules of every report.
+     *
+     * @return The rules, by report.
+     */
+    private Map<String, ArrayList<ArrayList<String>>> copyRules() {
+        Map<String, ArrayList<ArrayList<String>>> copy = new HashMap<>();
+        for (Map.Entry<String, ArrayList<ArrayList<String>>> entry : rulesData.entrySet()) {
+            ArrayList<ArrayList<String>> arrArr = new ArrayList<>();
+            for (ArrayList<String> arrRules : entry.getValue()) {
+                arrArr.add(new ArrayList<>(arrRules));
+            }
+            copy.put(entry.getKey(), arrArr);
         }
+        return copy;
+    }
 
+    /**
+     * Finds the bucket scheme of each report: the one its rules name, or the
+     * default one if they name none or one that config.properties does not
+     * define.
+     *
+     * @param reports The reports.
+     * @return The schemes, by report in the order given.
+     */
+    private Map<String, BucketScheme> getBucketSchemes(Collection<String> reports) {
+        Map<String, BucketScheme> schemes = new LinkedHashMap<>();
+        for (String report : reports) {
+            BucketScheme scheme = bucketSchemes.get(reportBucketSchemes.get(report));
+            schemes.put(report, scheme == null ? defaultBucketScheme : scheme);
+        }
+        return schemes;
+    }
 
-        // Iterate through months looking for the given "equals".
-        for (int j = startMonth; j <= endMonth; j++) {
+    /**
+     * Generates every report in one pass over the CSV files given by
+     * csvFileLocation. Each entry is tallied into the reports whose rules it
+     * follows as soon as it is read and is then thrown away, so files of any
+     * size can be reported on in a small heap.
+     *
+     * @param quarter The selected quarter.
+     * @param baseYear The current year of the reports.
+     * @throws IOException
+     */
+    public void generateReportsFromFile(int quarter, int baseYear) throws IOException {
+        generateReportsFromFile(quarter, baseYear, new ReportProgress());
+    }
 
-            /*
-             * CURRENT YEAR
-             */
+    /**
+     * Generates every report in one pass over the CSV files, adding the bytes
+     * read and then each report written to the progress.
+     *
+     * @param quarter The selected quarter.
+     * @param baseYear The current year of the reports.
+     * @param progress The progress of the reports.
+     * @throws IOException If the files could not be read or a report could not
+     * be written, or InterruptedIOException if cancelled.
+     */
+    public void generateReportsFromFile(int quarter, int baseYear,
+            ReportProgress progress) throws IOException {
+        generateReportsFromFile(Collections.singletonList(new ReportPeriod(
+                DateParser.packMonth(baseYear, getStartMonth(quarter)),
+                DateParser.packMonth(baseYear, getEndMonth(quarter)),
+                getQuarterName(quarter, baseYear), comparisons)), copyReportRules(), progress);
+    }
 
-            // Build the key (mm/yyyy) to find all the entries within the
-            // given month in the current year.
-            if (j < 10) {
-                date = "0" + j + "/" + currentYear;
-            } else {
-                date = j + "/" + currentYear;
+    /**
+     * Generates every report for some periods in one pass over the CSV
+     * files.
+     *
+     * @param periods The periods to write the reports for.
+     * @param rules The rules of the reports.
+     * @param progress The progress of the reports.
+     */
+    private void generateReportsFromFile(List<ReportPeriod> periods, ReportRules rules,
+            ReportProgress progress) throws IOException {
+
+        List<File> files = getCSVFiles();
+        int[] columns = getImportColumns();
+        Map<String, ArrayList<ArrayList<String>>> reportRules = rules.getRules();
+        Map<String, BucketScheme> schemes = rules.getSchemes();
+        ReportTally tally = new ReportTally(reportRules, schemes, companyProperty, periods);
+
+        String[] reference = new ImportFile(files.get(0)).readHeader();
+        List<ImportFile> importFiles = new ArrayList<>();
+        List<Long> ends = new ArrayList<>();
+        long bytesToRead = 0;
+        for (File file : files) {
+            ImportFile importFile = new ImportFile(file);
+            importFile.mapColumns(columns, reference);
+            importFiles.add(importFile);
+            ends.add(file.length());
+            bytesToRead += importFile.getBytesToRead(file.length());
+        }
+
+        // Skipped records that cannot be written are only mentioned in the
+        // diagnostics, so that the reports are still written.
+        ImportDiagnostics diagnostics = createDiagnostics(files, true, false);
+        List<List<ImportBatch>> results;
+        try {
+            progress.start(bytesToRead);
+            results = readFiles(importFiles, ends, tally, diagnostics, progress);
+            progress.checkCancelled();
+        } finally {
+            diagnostics.close();
+        }
+
+        importDiagnostics = diagnostics;
+        for (int i = 0; i < importFiles.size(); i++) {
+            String label = files.size() > 1 ? files.get(i).getName() : null;
+            int lineNumber = 0;
+            for (ImportBatch batch : results.get(i)) {
+                importDiagnostics.add(batch, lineNumber, label);
+                lineNumber += batch.getLineCount();
             }
+        }
 
-            // Grab all entries (houses sold) within the given mm/yyyy.
-            arrData = data.get(date);
-
-            // Skip this month/year if no properties are found.
-            if (arrData != null) {
-
-                // Iterate through all of the entries (house sold) in the given
-                // mm/yyy.
-                for (String entry : arrData) {
-
-                    // Whenever a comma is found, read forward to make sure that there
-                    // is either an even amount of quotes or no quotes at all. This
-                    // ensures that commas inside of quotes are not split.
-                    splitDataEntry = entry.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
-
-                    // If the sold property is in the desired "where", then 
-                    // check its sold price. An entry must match only one
-                    // "equals" for any "where". If there are no "equals"
-                    // for a given "where", then that particular "where"
-                    // does not factor into the statement.
-                    if ((arrArr.get(COUNTY).isEmpty() || arrArr.get(COUNTY).contains(splitDataEntry[ARR_COUNTY])) && 
-                            (arrArr.get(MUNICIPALITY).isEmpty() || arrArr.get(MUNICIPALITY).contains(splitDataEntry[ARR_MUNICIPALITY])) && 
-                            (arrArr.get(ZIP_CODE).isEmpty() || arrArr.get(ZIP_CODE).contains(splitDataEntry[ARR_ZIP_CODE])) && 
-                            (arrArr.get(BODY_OF_WATER).isEmpty() || arrArr.get(BODY_OF_WATER).contains(splitDataEntry[ARR_BODY_OF_WATER])) &&
-                            (arrArr.get(CONDO_NAME).isEmpty() || arrArr.get(CONDO_NAME).contains(splitDataEntry[ARR_CONDO_NAME])) && 
-                            (arrArr.get(PROPERTY_TYPE).isEmpty() || arrArr.get(PROPERTY_TYPE).contains(splitDataEntry[ARR_PROPERTY_TYPE]))) {
-
-                        double soldPrice = Double.parseDouble(splitDataEntry[ARR_SOLD_PRICE]);
-
-                        // Grab sold price and increment one of the ranges.
-                        if (soldPrice <= 59999) {
-                            currentYearStats[j][0] += 1;
-                        } else if (soldPrice <= 99999) {
-                            currentYearStats[j][1] += 1;
-                        } else if (soldPrice <= 149999) {
-                            currentYearStats[j][2] += 1;
-                        } else if (soldPrice <= 199999) {
-                            currentYearStats[j][3] += 1;
-                        } else if (soldPrice <= 249999) {
-                            currentYearStats[j][4] += 1;
-                        } else if (soldPrice <= 299999) {
-                            currentYearStats[j][5] += 1;
-                        } else if (soldPrice <= 399999) {
-                            currentYearStats[j][6] += 1;
-                        } else if (soldPrice <= 499999) {
-                            currentYearStats[j][7] += 1;
-                        } else if (soldPrice <= 749999) {
-                            currentYearStats[j][8] += 1;
-                        } else if (soldPrice <= 999999) {
-                            currentYearStats[j][9] += 1;
-                        } else if (1000000 <= soldPrice) {
-                            currentYearStats[j][10] += 1;
-                        }
-
-                        // [11] is reserved for the sum of properties sold by 
-                        // COMPANY +the sum of properties listed by COMPANY.
-                        if(splitDataEntry[ARR_LISTING_COMPANY_NAME].contains(companyProperty)) {
-                            currentYearStats[j][11] += 1;
-                        }
-                        if(splitDataEntry[ARR_SELLING_COMPANY_NAME].contains(companyProperty)) {
-                            currentYearStats[j][11] += 1;
-                        }
-                        
-                        // [12] is reserved for the total amount of sold
-                        // properties.
-                        currentYearStats[j][12] += 1;
-
-                        // [13] is reserved for the total amount of cash
-                        // made in the month.
-                        currentYearStats[j][13] += soldPrice;
-                    }
-                }
+        // Only writing the files is left, which is quick next to the reading.
+        List<String> reportNames = tally.getReports();
+        progress.startReports(reportNames.size() * periods.size());
+        for (int i = 0; i < reportNames.size(); i++) {
+            MonthlyTotals totals = tally.getTotals(i);
+            for (ReportPeriod period : periods) {
+                progress.checkCancelled();
+                writeReport(reportNames.get(i) + period.getName() + ".csv",
+                        reportRules.get(reportNames.get(i)), period,
+                        schemes.get(reportNames.get(i)), totals);
+                progress.reportFinished(reportNames.get(i) + period.getName());
             }
+        }
+    }
 
-            /*
-             * PREVIOUS YEAR
-             */
+    /**
+     * Adds one entry (house sold) to the stats of the month it sold in.
+     *
+     * @param stats The stats of the month: STAT_SIDES counts the sides
+     * COMPANY had, STAT_SALES all of the sales and STAT_MONEY the money they
+     * made, and from STAT_BUCKETS on are the sales in each range of the
+     * report's BucketScheme.
+     * @param soldPrice The sold price in cents.
+     * @param bucket The range of the report's scheme the sale is in, or -1.
+     * @param sides The number of sides of the sale that COMPANY had, 0 to 2.
+     */
+    static void addSale(long[] stats, long soldPrice, int bucket, int sides) {
 
-            // Build the key (mm/yyyy) to find all the entries within the
-            // given month in the previous year.
-            if (j < 10) {
-                date = "0" + j + "/" + previousYear;
-            } else {
-                date = j + "/" + previousYear;
-            }
+        // Increment the range the sale is in.
+        if (bucket != -1) {
+            stats[STAT_BUCKETS + bucket] += 1;
+        }
 
-            // Grab all entries (houses sold) within the given mm/yyyy.
-            arrData = data.get(date);
-
-            // Skip this month if no properties are found.
-            if (arrData != null) {
-
-                // Iterate through all of the entries (house sold) in the given
-                // mm/yyy.
-                for (String entry : arrData) {
-
-                    // Whenever a comma is found, read forward to make sure that there
-                    // is either an even amount of quotes or no quotes at all. This
-                    // ensures that commas inside of quotes are not split.
-                    splitDataEntry = entry.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
-
-                    // If the sold property is in the desired "where", then 
-                    // check its sold price. An entry must match only one
-                    // "equals" for any "where". If there are no "equals"
-                    // for a given "where", then that particular "where"
-                    // does not factor into the statement.
-                    if ((arrArr.get(COUNTY).isEmpty()
-                            || arrArr.get(COUNTY).contains(splitDataEntry[ARR_COUNTY]))
-                            && (arrArr.get(MUNICIPALITY).isEmpty()
-                            || arrArr.get(MUNICIPALITY).contains(splitDataEntry[ARR_MUNICIPALITY]))
-                            && (arrArr.get(ZIP_CODE).isEmpty()
-                            || arrArr.get(ZIP_CODE).contains(splitDataEntry[ARR_ZIP_CODE]))
-                            && (arrArr.get(BODY_OF_WATER).isEmpty()
-                            || arrArr.get(BODY_OF_WATER).contains(splitDataEntry[ARR_BODY_OF_WATER]))
-                            && (arrArr.get(CONDO_NAME).isEmpty()
-                            || arrArr.get(CONDO_NAME).contains(splitDataEntry[ARR_CONDO_NAME]))
-                            && (arrArr.get(PROPERTY_TYPE).isEmpty()
-                            || arrArr.get(PROPERTY_TYPE).contains(splitDataEntry[ARR_PROPERTY_TYPE]))) {
-
-                        // Grab sold price and increment one of the ranges.
-                        double soldPrice = Double.parseDouble(splitDataEntry[ARR_SOLD_PRICE]);
-
-                        if (soldPrice <= 59999) {
-                            previousYearStats[j][0] += 1;
-                        } else if (soldPrice <= 99999) {
-                            previousYearStats[j][1] += 1;
-                        } else if (soldPrice <= 149999) {
-                            previousYearStats[j][2] += 1;
-                        } else if (soldPrice <= 199999) {
-                            previousYearStats[j][3] += 1;
-                        } else if (soldPrice <= 249999) {
-                            previousYearStats[j][4] += 1;
-                        } else if (soldPrice <= 299999) {
-                            previousYearStats[j][5] += 1;
-                        } else if (soldPrice <= 399999) {
-                            previousYearStats[j][6] += 1;
-                        } else if (soldPrice <= 499999) {
-                            previousYearStats[j][7] += 1;
-                        } else if (soldPrice <= 749999) {
-                            previousYearStats[j][8] += 1;
-                        } else if (soldPrice <= 999999) {
-                            previousYearStats[j][9] += 1;
-                        } else if (1000000 <= soldPrice) {
-                            previousYearStats[j][10] += 1;
-                        }
-
-                        // [11] is reserved for the sum of properties sold by 
-                        // COMPANY +the sum of properties listed by COMPANY.
-                        if(splitDataEntry[ARR_LISTING_COMPANY_NAME].contains(companyProperty)) {
-                            previousYearStats[j][11] += 1;
-                        }
-                        if(splitDataEntry[ARR_SELLING_COMPANY_NAME].contains(companyProperty)) {
-                            previousYearStats[j][11] += 1;
-                        }
-                        
-                        // [12] is reserved for the total amount of sold
-                        // properties.
-                        previousYearStats[j][12] += 1;
-
-                        // [13] is reserved for the total amount of cash
-                        // made in the month.
-                        previousYearStats[j][13] += soldPrice;
-                    }
-                }
+        // The sum of properties sold by COMPANY + the sum of properties
+        // listed by COMPANY.
+        stats[STAT_SIDES] += sides;
+
+        // The total amount of sold properties.
+        stats[STAT_SALES] += 1;
+
+        // The total amount of cash made in the month.
+        stats[STAT_MONEY] += soldPrice / 100;
+    }
+
+    /**
+     * Returns the first month of the given quarter. If quater = 5, the whole
+     * year is selected.
+     *
+     * @param quarter The selected quarter.
+     * @return The first month, 1 to 12.
+     */
+    static int getStartMonth(int quarter) {
+        return quarter >= 1 && quarter <= 4 ? quarter * 3 - 2 : 1;
+    }
+
+    /**
+     * Returns the last month of the given quarter. If quater = 5, the whole
+     * year is selected.
+     *
+     * @param quarter The selected quarter.
+     * @return The last month, 1 to 12.
+     */
+    static int getEndMonth(int quarter) {
+        return quarter >= 1 && quarter <= 4 ? quarter * 3 : 12;
+    }
+
+    /**
+     * Returns the name of a quarter for the names of report files.
+     *
+     * @param quarter The selected quarter, or 5 for the whole year.
+     * @param baseYear The current year of the reports.
+     * @return Q and the quarter, or the year if the whole year is selected.
+     */
+    private static String getQuarterName(int quarter, int baseYear) {
+        return quarter < 5 ? "Q" + quarter : String.valueOf(baseYear);
+    }
+
+    /**
+     * Returns the name of a run of months for the totals of a report: the
+     * year if the months are all in one year, or else the first and last
+     * month, as in July2013-June2014.
+     *
+     * @param firstMonth The first month, packed as yyyymm.
+     * @param lastMonth The last month, packed as yyyymm.
+     * @return The name.
+     */
+    private static String getPeriodName(int firstMonth, int lastMonth) {
+        if (firstMonth / 100 == lastMonth / 100) {
+            return String.valueOf(firstMonth / 100);
+        }
+        return getMonthName(firstMonth % 100) + firstMonth / 100 + "-"
+                + getMonthName(lastMonth % 100) + lastMonth / 100;
+    }
+
+    /**
+     * Writes the report file for stats that have already been tallied. Each
+     * month, and the totals of the period, have a column for each comparison,
+     * oldest first, and then one for the period itself.
+     *
+     * @param fileName The name of the report file.
+     * @param arr The rules of the report.
+     * @param period The months of the report and its comparisons.
+     * @param scheme The bucket scheme of the report.
+     * @param totals The stats of the report, covering the months of the
+     * period and of its comparisons.
+     * @throws IOException
+     */
+    private void writeReport(String fileName, ArrayList<ArrayList<String>> arr,
+            ReportPeriod period, BucketScheme scheme, MonthlyTotals totals)
+            throws IOException {
+
+        // How many months back each column is, the period itself last.
+        int[] comparisons = period.getComparisons();
+        int[] monthsBack = Arrays.copyOf(comparisons, comparisons.length + 1);
+        int columns = monthsBack.length;
+
+        // The stats of each column of each month of the report, indexed by
+        // month, then column and then as in addSale, and the sums of each
+        // column.
+        int months = period.getLength();
+        int[][] columnMonths = new int[months][columns];
+        long[][][] stats = new long[months][columns][];
+        long[][] sums = new long[columns][];
+        String[] periodNames = new String[columns];
+        for (int c = 0; c < columns; c++) {
+            int first = DateParser.addMonths(period.getFirstMonth(), -monthsBack[c]);
+            int last = DateParser.addMonths(period.getLastMonth(), -monthsBack[c]);
+            for (int j = 0; j < months; j++) {
+                columnMonths[j][c] = DateParser.addMonths(first, j);
+                stats[j][c] = totals.get(columnMonths[j][c]);
             }
+            sums[c] = totals.sum(first, last);
+            periodNames[c] = getPeriodName(first, last);
         }
 
-        // Add quarter to file name if full year is not selected.
-        if (quarter < 5) {
-            fileName = report + "Q" + quarter + ".csv";
-        } else {
-            fileName = report + currentYear + ".csv";
+        // A comparison in the same year, such as the quarter before, is told
+        // apart by its months.
+        if (new LinkedHashSet<>(Arrays.asList(periodNames)).size() < columns) {
+            for (int c = 0; c < columns; c++) {
+                int first = DateParser.addMonths(period.getFirstMonth(), -monthsBack[c]);
+                int last = DateParser.addMonths(period.getLastMonth(), -monthsBack[c]);
+                periodNames[c] = getMonthName(first % 100) + first / 100 + "-"
+                        + getMonthName(last % 100) + last / 100;
+            }
         }
+        String[][] cells = new String[months][columns];
 
         /**
          * PRINT THE FILE
@@ -996,8 +1671,6 @@ public class Model {
         // Write rules used to create this file.
         fw.write("Rules: \n");
         
-        ArrayList<ArrayList <String>> arr = rulesData.get(report);
-        
         ArrayList<String> arrRule = arr.get(COUNTY); 
         fw.write("Where County =,");
         if(arrRule.size() == 0) 
@@ -1066,412 +1739,80 @@ public class Model {
         
         fw.write("\n");
         
-        // Write first comma
-        fw.write(",");
-
         // Print the header.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            // Find month.
-            String month = "";
-            switch (j) {
-                case 1:
-                    month = "January";
-                    break;
-                case 2:
-                    month = "February";
-                    break;
-                case 3:
-                    month = "March";
-                    break;
-                case 4:
-                    month = "April";
-                    break;
-                case 5:
-                    month = "May";
-                    break;
-                case 6:
-                    month = "June";
-                    break;
-                case 7:
-                    month = "July";
-                    break;
-                case 8:
-                    month = "August";
-                    break;
-                case 9:
-                    month = "September";
-                    break;
-                case 10:
-                    month = "October";
-                    break;
-                case 11:
-                    month = "November";
-                    break;
-                case 12:
-                    month = "December";
-                    break;
-            }
-
-            // Write header for month.
-            if (j == endMonth) {
-                fw.write(month + previousYear + ":,"
-                        + month + currentYear + ":");
-            } else {
-                fw.write(month + previousYear + ":,"
-                        + month + currentYear + ":,,,");
-            }
-        }
-
-        fw.write("\n");
-        
-        // Print stats for 0-59999.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("0-59999," + previousYearStats[j][0] + ","
-                        + currentYearStats[j][0]);
-            } else {
-                fw.write("0-59999," + previousYearStats[j][0] + ","
-                        + currentYearStats[j][0] + ",,");
-            }
-        }
-
-        fw.write("\n");
-
-        // Print stats 60000-99999.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("60000-99999," + previousYearStats[j][1] + ","
-                        + currentYearStats[j][1]);
-            } else {
-                fw.write("60000-99999," + previousYearStats[j][1] + ","
-                        + currentYearStats[j][1] + ",,");
-            }
-        }
-
-        fw.write("\n");
-
-        // Print stats 100000-149999.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("100000-149999," + previousYearStats[j][2] + ","
-                        + currentYearStats[j][2]);
-            } else {
-                fw.write("100000-149999," + previousYearStats[j][2] + ","
-                        + currentYearStats[j][2] + ",,");
+        for (int j = 0; j < months; j++) {
+            for (int c = 0; c < columns; c++) {
+                cells[j][c] = getMonthName(columnMonths[j][c] % 100)
+                        + columnMonths[j][c] / 100 + ":";
             }
         }
+        writeMonths(fw, "", cells);
 
-        fw.write("\n");
-
-        // Print stats 150000-199999.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("150000-199999," + previousYearStats[j][3] + ","
-                        + currentYearStats[j][3]);
-            } else {
-                fw.write("150000-199999," + previousYearStats[j][3] + ","
-                        + currentYearStats[j][3] + ",,");
-            }
-
+        // Print stats for each range of the bucket scheme.
+        for (int k = 0; k < scheme.getBucketCount(); k++) {
+            writeMonths(fw, scheme.getLabel(k), getCells(stats, STAT_BUCKETS + k, cells));
         }
-        fw.write("\n");
-
-        // Print stats 200000-249999.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("200000-249999," + previousYearStats[j][4] + ","
-                        + currentYearStats[j][4]);
-            } else {
-                fw.write("200000-249999," + previousYearStats[j][4] + ","
-                        + currentYearStats[j][4] + ",,");
-            }
-        }
-
-        fw.write("\n");
-
-        // Print stats 250000-299999.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("250000-299999," + previousYearStats[j][5] + ","
-                        + currentYearStats[j][5]);
-            } else {
-                fw.write("250000-299999," + previousYearStats[j][5] + ","
-                        + currentYearStats[j][5] + ",,");
-            }
-        }
-
-        fw.write("\n");
-
-        // Print stats 300000-399999.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("300000-399999," + previousYearStats[j][6] + ","
-                        + currentYearStats[j][6]);
-            } else {
-                fw.write("300000-399999," + previousYearStats[j][6] + ","
-                        + currentYearStats[j][6] + ",,");
-            }
-        }
-
-        fw.write("\n");
-
-        // Print stats 400000-499999.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("400000-499999," + previousYearStats[j][7] + ","
-                        + currentYearStats[j][7]);
-            } else {
-                fw.write("400000-499999," + previousYearStats[j][7] + ","
-                        + currentYearStats[j][7] + ",,");
-            }
-        }
-
-        fw.write("\n");
-
-        // Print stats 500000-749999.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("500000-749999," + previousYearStats[j][8] + ","
-                        + currentYearStats[j][8]);
-            } else {
-                fw.write("500000-749999," + previousYearStats[j][8] + ","
-                        + currentYearStats[j][8] + ",,");
-            }
-        }
-
-        fw.write("\n");
-
-        // Print stats 750000-999999.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("750000-999999," + previousYearStats[j][9] + ","
-                        + currentYearStats[j][9]);
-            } else {
-                fw.write("750000-999999," + previousYearStats[j][9] + ","
-                        + currentYearStats[j][9] + ",,");
-            }
-        }
-
-        fw.write("\n");
-
-        // Print stats 1000000.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("1000000+," + previousYearStats[j][10] + ","
-                        + currentYearStats[j][10]);
-            } else {
-                fw.write("1000000+," + previousYearStats[j][10] + ","
-                        + currentYearStats[j][10] + ",,");
-            }
-        }
-
-        fw.write("\n");
 
         // Print stats total sales.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("Total Sales," + previousYearStats[j][12] + ","
-                        + currentYearStats[j][12]);
-            } else {
-                fw.write("Total Sales," + previousYearStats[j][12] + ","
-                        + currentYearStats[j][12] + ",,");
-            }
-        }
-
-        fw.write("\n");
+        writeMonths(fw, "Total Sales", getCells(stats, STAT_SALES, cells));
 
         // Print stats total money.
-        for (int j = startMonth; j <= endMonth; j++) {
-            String current = NumberFormat.getInstance().format(
-                    currentYearStats[j][13]);
-            String previous = NumberFormat.getInstance().format(
-                    previousYearStats[j][13]);
-            if (j == endMonth) {
-                fw.write("Total Money,\"$" + previous + " \",\"$"
-                        + current + " \"");
-            } else {
-                fw.write("Total Money,\"$" + previous + " \",\"$"
-                        + current + " \",,");
+        for (int j = 0; j < months; j++) {
+            for (int c = 0; c < columns; c++) {
+                cells[j][c] = "\"$" + NumberFormat.getInstance().format(
+                        stats[j][c][STAT_MONEY]) + " \"";
             }
         }
-
-        fw.write("\n");
+        writeMonths(fw, "Total Money", cells);
 
         // Print stats sides for COMPANY.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("Side (" + companyProperty + ")," + previousYearStats[j][11] + ","
-                        + currentYearStats[j][11]);
-            } else {
-                fw.write("Side (" + companyProperty + ")," + previousYearStats[j][11] + ","
-                        + currentYearStats[j][11] + ",,");
-            }
-        }
-        
-        fw.write("\n");
+        writeMonths(fw, "Side (" + companyProperty + ")", getCells(stats, STAT_SIDES, cells));
 
         // Print stats total sides.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write("Side (Total)," + (previousYearStats[j][12] * 2) + ","
-                        + (currentYearStats[j][12] * 2));
-            } else {
-                fw.write("Side (Total)," + (previousYearStats[j][12] * 2) + ","
-                        + (currentYearStats[j][12] * 2) + ",,");
+        for (int j = 0; j < months; j++) {
+            for (int c = 0; c < columns; c++) {
+                cells[j][c] = String.valueOf(stats[j][c][STAT_SALES] * 2);
             }
         }
-        
-        fw.write("\n");
+        writeMonths(fw, "Side (Total)", cells);
 
         // Print stats sides %COMPANY.
-        for (int j = startMonth; j <= endMonth; j++) {
-
-            if (j == endMonth) {
-                fw.write(companyProperty + "," + 
-                        (previousYearStats[j][11] / ((double) previousYearStats[j][12] * 2)) * 100 
-                        + "%," + currentYearStats[j][11] / ((double) currentYearStats[j][12] * 2) * 100
-                        + "%");
-            } else {
-                fw.write(companyProperty + "," + 
-                        (previousYearStats[j][11] / ((double) previousYearStats[j][12] * 2)) * 100 
-                        + "%," + currentYearStats[j][11] / ((double) currentYearStats[j][12] * 2) * 100
-                        + "%,,");
+        for (int j = 0; j < months; j++) {
+            for (int c = 0; c < columns; c++) {
+                cells[j][c] = stats[j][c][STAT_SIDES]
+                        / ((double) stats[j][c][STAT_SALES] * 2) * 100 + "%";
             }
         }
+        writeMonths(fw, companyProperty, cells);
         
-        fw.write("\n\n\n");
+        fw.write("\n\n");
         
         /**
          * BEGIN TOTAL SALES PER YEAR.
          */
         
-        int sumCurrentYear = 0;
-        int sumPreviousYear = 0;
-        
         // Print header. 
-        fw.write("," + previousYear + "," + currentYear + "\n");
-        
-        // Write totals of sales for 0-59999.
-        for (int j = startMonth; j <= endMonth; j++) {
-            sumCurrentYear += currentYearStats[j][0];
-            sumPreviousYear += previousYearStats[j][0];
-        }
-        fw.write("0-59999," + sumPreviousYear + "," + sumCurrentYear);
-        sumCurrentYear = 0;
-        sumPreviousYear = 0;
-        fw.write("\n");
-        
-        // Write totals of sales for 60000-99999. 
-        for (int j = startMonth; j <= endMonth; j++) {
-            sumCurrentYear += currentYearStats[j][1];
-            sumPreviousYear += previousYearStats[j][1];
-        }
-        fw.write("60000-99999," + sumPreviousYear + "," + sumCurrentYear);
-        sumCurrentYear = 0;
-        sumPreviousYear = 0;
-        fw.write("\n");
-        
-        // Write totals of sales for 100000-149999. 
-        for (int j = startMonth; j <= endMonth; j++) {
-            sumCurrentYear += currentYearStats[j][2];
-            sumPreviousYear += previousYearStats[j][2];
-        }
-        fw.write("100000-149999," + sumPreviousYear + "," + sumCurrentYear);
-        sumCurrentYear = 0;
-        sumPreviousYear = 0;
-        fw.write("\n");
-        
-        // Write totals of sales for 150000-199999. 
-        for (int j = startMonth; j <= endMonth; j++) {
-            sumCurrentYear += currentYearStats[j][3];
-            sumPreviousYear += previousYearStats[j][3];
-        }
-        fw.write("150000-199999," + sumPreviousYear + "," + sumCurrentYear);
-        sumCurrentYear = 0;
-        sumPreviousYear = 0;
-        fw.write("\n");
-        
-        // Write totals of sales for 200000-249999. 
-        for (int j = startMonth; j <= endMonth; j++) {
-            sumCurrentYear += currentYearStats[j][4];
-            sumPreviousYear += previousYearStats[j][4];
-        }
-        fw.write("200000-249999," + sumPreviousYear + "," + sumCurrentYear);
-        sumCurrentYear = 0;
-        sumPreviousYear = 0;
-        fw.write("\n");
-        
-        // Write totals of sales for 250000-299999. 
-        for (int j = startMonth; j <= endMonth; j++) {
-            sumCurrentYear += currentYearStats[j][5];
-            sumPreviousYear += previousYearStats[j][5];
-        }
-        fw.write("250000-299999," + sumPreviousYear + "," + sumCurrentYear);
-        sumCurrentYear = 0;
-        sumPreviousYear = 0;
-        fw.write("\n");
-        
-        // Write totals of sales for 300000-399999. 
-        for (int j = startMonth; j <= endMonth; j++) {
-            sumCurrentYear += currentYearStats[j][6];
-            sumPreviousYear += previousYearStats[j][6];
-        }
-        fw.write("300000-399999," + sumPreviousYear + "," + sumCurrentYear);
-        sumCurrentYear = 0;
-        sumPreviousYear = 0;
-        fw.write("\n");
-        
-        // Write totals of sales for 400000-499999. 
-        for (int j = startMonth; j <= endMonth; j++) {
-            sumCurrentYear += currentYearStats[j][7];
-            sumPreviousYear += previousYearStats[j][7];
-        }
-        fw.write("400000-499999," + sumPreviousYear + "," + sumCurrentYear);
-        sumCurrentYear = 0;
-        sumPreviousYear = 0;
-        fw.write("\n");
-        
-        // Write totals of sales for 500000-749999. 
-        for (int j = startMonth; j <= endMonth; j++) {
-            sumCurrentYear += currentYearStats[j][8];
-            sumPreviousYear += previousYearStats[j][8];
-        }
-        fw.write("500000-749999," + sumPreviousYear + "," + sumCurrentYear);
-        sumCurrentYear = 0;
-        sumPreviousYear = 0;
-        fw.write("\n");
-        
-        // Write totals of sales for 750000-999999. 
-        for (int j = startMonth; j <= endMonth; j++) {
-            sumCurrentYear += currentYearStats[j][9];
-            sumPreviousYear += previousYearStats[j][9];
-        }
-        fw.write("750000-999999," + sumPreviousYear + "," + sumCurrentYear);
-        sumCurrentYear = 0;
-        sumPreviousYear = 0;
+        fw.write(",");
+        writeColumns(fw, periodNames);
         fw.write("\n");
         
-        // Write totals of sales for '1000000+. 
-        for (int j = startMonth; j <= endMonth; j++) {
-            sumCurrentYear += currentYearStats[j][10];
-            sumPreviousYear += previousYearStats[j][10];
+        // Write totals of sales for each range. The last range is quoted so
+        // that spreadsheets keep its + as text.
+        String[] columnSums = new String[columns];
+        for (int k = 0; k < scheme.getBucketCount(); k++) {
+            String range = scheme.getLabel(k);
+            for (int c = 0; c < columns; c++) {
+                columnSums[c] = String.valueOf(sums[c][STAT_BUCKETS + k]);
+            }
+            if (k == scheme.getBucketCount() - 1) {
+                fw.write("'" + range + ",");
+                writeColumns(fw, columnSums);
+            } else {
+                fw.write(range + ",");
+                writeColumns(fw, columnSums);
+                fw.write("\n");
+            }
         }
-        fw.write("'1000000+," + sumPreviousYear + "," + sumCurrentYear);
         
         fw.write("\n\n\n");
         
@@ -1480,59 +1821,23 @@ public class Model {
          */
         
         // Print header.
-        fw.write("," + previousYear + "," + currentYear + "\n");
+        fw.write(",");
+        writeColumns(fw, periodNames);
+        fw.write("\n");
         
         // Print cash totals for each month included in the report.
-        for (int j = startMonth; j <= endMonth; j++) {
+        for (int j = 0; j < months; j++) {
             
             // Find month.
-            String month = "";
-            switch (j) {
-                case 1:
-                    month = "January";
-                    break;
-                case 2:
-                    month = "February";
-                    break;
-                case 3:
-                    month = "March";
-                    break;
-                case 4:
-                    month = "April";
-                    break;
-                case 5:
-                    month = "May";
-                    break;
-                case 6:
-                    month = "June";
-                    break;
-                case 7:
-                    month = "July";
-                    break;
-                case 8:
-                    month = "August";
-                    break;
-                case 9:
-                    month = "September";
-                    break;
-                case 10:
-                    month = "October";
-                    break;
-                case 11:
-                    month = "November";
-                    break;
-                case 12:
-                    month = "December";
-                    break;
-            }
+            String month = getMonthName(columnMonths[j][columns - 1] % 100);
             
             // Format and print.
-            String current = NumberFormat.getInstance().format(
-                    currentYearStats[j][13]);
-            String previous = NumberFormat.getInstance().format(
-                    previousYearStats[j][13]);   
-            fw.write(month + ",\"$" + previous + " \",\"$" 
-                    +  current + " \"");
+            for (int c = 0; c < columns; c++) {
+                columnSums[c] = "\"$" + NumberFormat.getInstance().format(
+                        stats[j][c][STAT_MONEY]) + " \"";
+            }
+            fw.write(month + ",");
+            writeColumns(fw, columnSums);
             
             fw.write("\n");
         }
@@ -1540,4 +1845,91 @@ public class Model {
         // Close the FileWriter flushing the output.
         fw.close();
     }
+
+    /**
+     * Fills the cells of each column of each month with one of its stats.
+     *
+     * @param stats The stats, indexed as in writeReport.
+     * @param stat The stat, such as STAT_SALES.
+     * @param cells The cells to fill, indexed by month and then column.
+     * @return The cells.
+     */
+    private static String[][] getCells(long[][][] stats, int stat, String[][] cells) {
+        for (int j = 0; j < cells.length; j++) {
+            for (int c = 0; c < cells[j].length; c++) {
+                cells[j][c] = String.valueOf(stats[j][c][stat]);
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Writes a line of the main report: the label and the columns of each
+     * month, with the months apart by an empty cell.
+     *
+     * @param fw The report file.
+     * @param label The label, written before each month.
+     * @param cells The cells of each month, indexed by month and then column.
+     * @throws IOException
+     */
+    private static void writeMonths(FileWriter fw, String label, String[][] cells)
+            throws IOException {
+        for (int j = 0; j < cells.length; j++) {
+            fw.write(label + ",");
+            writeColumns(fw, cells[j]);
+            if (j < cells.length - 1) {
+                fw.write(",,");
+            }
+        }
+        fw.write("\n");
+    }
+
+    /**
+     * Writes cells apart by commas.
+     */
+    private static void writeColumns(FileWriter fw, String[] cells) throws IOException {
+        for (int c = 0; c < cells.length; c++) {
+            if (c > 0) {
+                fw.write(",");
+            }
+            fw.write(cells[c]);
+        }
+    }
+
+    /**
+     * Returns the name of a month.
+     *
+     * @param month The month, 1 to 12.
+     * @return The name, such as January.
+     */
+    private static String getMonthName(int month) {
+        switch (month) {
+            case 1:
+                return "January";
+            case 2:
+                return "February";
+            case 3:
+                return "March";
+            case 4:
+                return "April";
+            case 5:
+                return "May";
+            case 6:
+                return "June";
+            case 7:
+                return "July";
+            case 8:
+                return "August";
+            case 9:
+                return "September";
+            case 10:
+                return "October";
+            case 11:
+                return "November";
+            case 12:
+                return "December";
+            default:
+                return "";
+        }
+    }
 }
@@ -0,0 +1,68 @@
+package Stats;
+
+/**
+ * The stats of one report for a run of consecutive months, kept as running
+ * totals: for every month, the sums of the stats of all of the months before
+ * it. Adding up any range of the months, such as a quarter, the trailing
+ * twelve months or a fiscal year, takes one subtraction instead of a pass
+ * over every month in it.
+ *
+ * @author Christopher Buss
+ */
+public class MonthlyTotals {
+
+    private final int firstMonth;
+    private final int count;
+    // The number of stats kept for each month, indexed as in Model.addSale.
+    private final int width;
+    // before[i] holds the sums of the first i months, counted from
+    // firstMonth.
+    private final long[][] before;
+
+    /**
+     * Creates totals of the stats of each month.
+     *
+     * @param firstMonth The month of stats[0], packed as yyyymm.
+     * @param stats The stats of each month, indexed as in Model.addSale.
+     * There must be at least one month.
+     */
+    public MonthlyTotals(int firstMonth, long[][] stats) {
+        this.firstMonth = firstMonth;
+        this.count = stats.length;
+        this.width = stats[0].length;
+        this.before = new long[count + 1][width];
+        for (int i = 0; i < count; i++) {
+            for (int k = 0; k < width; k++) {
+                before[i + 1][k] = before[i][k] + stats[i][k];
+            }
+        }
+    }
+
+    /**
+     * Adds up the stats of a range of months. Months outside of the totals
+     * count as having no sales.
+     *
+     * @param from The first month of the range, packed as yyyymm.
+     * @param to The last month of the range, packed as yyyymm.
+     * @return The sums, indexed as in Model.addSale.
+     */
+    public long[] sum(int from, int to) {
+        int start = Math.max(0, DateParser.monthsBetween(firstMonth, from));
+        int end = Math.min(count, DateParser.monthsBetween(firstMonth, to) + 1);
+        long[] sums = new long[width];
+        for (int k = 0; start < end && k < width; k++) {
+            sums[k] = before[end][k] - before[start][k];
+        }
+        return sums;
+    }
+
+    /**
+     * Returns the stats of one month.
+     *
+     * @param month The month, packed as yyyymm.
+     * @return The stats, indexed as in Model.addSale.
+     */
+    public long[] get(int month) {
+        return sum(month, month);
+    }
+}
@@ -0,0 +1,149 @@
+package Stats;
+
+/**
+ * Reads prices and whole numbers into longs without creating any objects or
+ * throwing exceptions, so a bad value costs no more than a good one.
+ *
+ * Prices are read as they appear in MLS exports: "1234567", "1234567.5" or
+ * "$1,234,567.00", optionally signed and surrounded by blanks. They come back
+ * as whole cents, rounded half up on the third decimal.
+ *
+ * @author Christopher Buss
+ */
+public class NumberParser {
+
+    // Returned for anything that is not a number.
+    public static final long INVALID = Long.MIN_VALUE;
+
+    // Larger whole parts would overflow once turned into cents.
+    private static final long MAX_WHOLE = Long.MAX_VALUE / 100 - 1;
+
+    private NumberParser() {
+    }
+
+    /**
+     * Reads a price.
+     *
+     * @param str The text of the price.
+     * @return The price in cents, or INVALID.
+     */
+    public static long parseCents(CharSequence str) {
+
+        int length = str.length();
+        int i = 0;
+
+        // Skip blanks on both ends.
+        while (i < length && str.charAt(i) <= ' ') {
+            i++;
+        }
+        while (length > i && str.charAt(length - 1) <= ' ') {
+            length--;
+        }
+
+        // The sign and the dollar sign may come in either order.
+        boolean negative = false;
+        boolean signed = false;
+        boolean dollar = false;
+        while (i < length) {
+            char ch = str.charAt(i);
+            if ((ch == '-' || ch == '+') && !signed) {
+                negative = ch == '-';
+                signed = true;
+            } else if (ch == '$' && !dollar) {
+                dollar = true;
+            } else {
+                break;
+            }
+            i++;
+        }
+
+        // The whole dollars. Commas may only separate digits.
+        long whole = 0;
+        int digits = 0;
+        while (i < length) {
+            char ch = str.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                if (whole > MAX_WHOLE / 10) {
+                    return INVALID;
+                }
+                whole = whole * 10 + (ch - '0');
+                digits++;
+            } else if (ch != ',' || digits == 0 || i + 1 == length
+                    || str.charAt(i + 1) < '0' || str.charAt(i + 1) > '9') {
+                break;
+            }
+            i++;
+        }
+
+        // The cents, rounded on the third decimal. Any further decimals have
+        // to be digits but are otherwise ignored.
+        long cents = 0;
+        if (i < length && str.charAt(i) == '.') {
+            i++;
+            int decimals = 0;
+            while (i < length) {
+                char ch = str.charAt(i);
+                if (ch < '0' || ch > '9') {
+                    break;
+                }
+                if (decimals < 2) {
+                    cents = cents * 10 + (ch - '0');
+                } else if (decimals == 2 && ch >= '5') {
+                    cents++;
+                }
+                decimals++;
+                digits++;
+                i++;
+            }
+            if (decimals == 1) {
+                cents *= 10;
+            }
+        }
+
+        if (digits == 0 || i != length) {
+            return INVALID;
+        }
+        long price = whole * 100 + cents;
+        return negative ? -price : price;
+    }
+
+    /**
+     * Reads a whole number, optionally signed and surrounded by blanks.
+     *
+     * @param str The text of the number.
+     * @return The number, or INVALID.
+     */
+    public static long parseLong(CharSequence str) {
+
+        int length = str.length();
+        int i = 0;
+
+        // Skip blanks on both ends.
+        while (i < length && str.charAt(i) <= ' ') {
+            i++;
+        }
+        while (length > i && str.charAt(length - 1) <= ' ') {
+            length--;
+        }
+
+        boolean negative = false;
+        if (i < length && (str.charAt(i) == '-' || str.charAt(i) == '+')) {
+            negative = str.charAt(i) == '-';
+            i++;
+        }
+
+        // Eighteen digits always fit in a long.
+        if (i == length || length - i > 18) {
+            return INVALID;
+        }
+        long value = 0;
+        for (; i < length; i++) {
+            char ch = str.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return INVALID;
+            }
+            value = value * 10 + (ch - '0');
+        }
+        return negative ? -value : value;
+    }
+}
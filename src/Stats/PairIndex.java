@@ -0,0 +1,132 @@
+package Stats;
+
+import java.util.Arrays;
+
+/**
+ * Holds the distinct pairs of two text values, such as the municipality and
+ * county of a sale, in the order they were first added. Both values are
+ * turned into codes with a ValueDictionary, and the pairs are kept in a hash
+ * table of the two codes packed into a long, so adding a pair that is already
+ * there costs two dictionary lookups and no new objects.
+ *
+ * @author Christopher Buss
+ */
+public class PairIndex {
+
+    // Marks an empty slot of the table. Codes are never negative, so no
+    // pair packs to it.
+    private static final long EMPTY = -1;
+
+    private final ValueDictionary values = new ValueDictionary();
+    // Open addressing table of the packed pairs. Its length is a power of two
+    // and it is never more than half full.
+    private long[] table;
+    // The codes of each pair, in the order the pairs were added.
+    private int[] firsts = new int[16];
+    private int[] seconds = new int[16];
+    private int size;
+
+    /**
+     * Creates an empty index.
+     */
+    public PairIndex() {
+        table = new long[32];
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * Adds a pair if it is not already in the index.
+     *
+     * @param first The first value of the pair.
+     * @param second The second value of the pair.
+     * @return True if the pair was added, false if it was already there.
+     */
+    public boolean add(String first, String second) {
+        int firstCode = values.encode(first);
+        int secondCode = values.encode(second);
+        long key = ((long) firstCode << 32) | secondCode;
+
+        int slot = find(table, key);
+        if (table[slot] == key) {
+            return false;
+        }
+        table[slot] = key;
+
+        if (size == firsts.length) {
+            firsts = Arrays.copyOf(firsts, size * 2);
+            seconds = Arrays.copyOf(seconds, size * 2);
+        }
+        firsts[size] = firstCode;
+        seconds[size] = secondCode;
+        size++;
+
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first value of a pair.
+     *
+     * @param pair The index of the pair, in the order the pairs were added.
+     * @return The value.
+     */
+    public String getFirst(int pair) {
+        return values.getValue(firsts[pair]);
+    }
+
+    /**
+     * Returns the second value of a pair.
+     *
+     * @param pair The index of the pair, in the order the pairs were added.
+     * @return The value.
+     */
+    public String getSecond(int pair) {
+        return values.getValue(seconds[pair]);
+    }
+
+    /**
+     * Returns the number of distinct pairs.
+     *
+     * @return The number of pairs added so far.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every pair.
+     */
+    public void clear() {
+        values.clear();
+        Arrays.fill(table, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Doubles the table and puts every pair back into it.
+     */
+    private void rehash() {
+        long[] larger = new long[table.length * 2];
+        Arrays.fill(larger, EMPTY);
+        for (int i = 0; i < size; i++) {
+            long key = ((long) firsts[i] << 32) | seconds[i];
+            larger[find(larger, key)] = key;
+        }
+        table = larger;
+    }
+
+    /**
+     * Returns the slot holding the key, or the empty slot it would go in.
+     */
+    private static int find(long[] table, long key) {
+        int mask = table.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h >>> 32) & mask;
+        while (table[slot] != EMPTY && table[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
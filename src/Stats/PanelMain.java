@@ -1,8 +1,15 @@
 package Stats;
 
 import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.NumberFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JEditorPane;
@@ -11,6 +18,8 @@ import javax.swing.JFrame;
 import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JScrollPane;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 /*
@@ -31,6 +40,12 @@ public class PanelMain extends javax.swing.JPanel {
     // Saves the radio button selection
     int radioButtonSelected = 1;
     
+    // The import that is running, if any.
+    private ImportWorker importWorker;
+    
+    // The report generation that is running, if any.
+    private ReportWorker reportWorker;
+    
     /**
      * Creates new form StatsGUI
      */
@@ -40,8 +55,12 @@ public class PanelMain extends javax.swing.JPanel {
         model = Model.getInstance();
         listCountiesAndMunicipalities = new JList(model.getCountiesAndMunicipalities());
         fileChooser = new JFileChooser(System.getProperty("user.dir"));
-        FileNameExtensionFilter filter = new FileNameExtensionFilter("CSV Files", "csv");
+        FileNameExtensionFilter filter = new FileNameExtensionFilter("CSV Files (.csv, .gz, .zip)", "csv", "gz", "zip");
         fileChooser.setFileFilter(filter);
+        
+        // Several files, or a whole directory of them, can be imported at once.
+        fileChooser.setMultiSelectionEnabled(true);
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
         initComponents();
     }
 
@@ -298,7 +317,7 @@ public class PanelMain extends javax.swing.JPanel {
     }// </editor-fold>//GEN-END:initComponents
 
     /**
-     * Allows the user to browse for a .csv file. 
+     * Allows the user to browse for .csv files or a directory holding them. 
      * 
      * @param evt 
      */
@@ -307,10 +326,22 @@ public class PanelMain extends javax.swing.JPanel {
         // Open the file browser dialog box.
         int returnVal = fileChooser.showOpenDialog(jLabel1);
         
-        // If the user does not cancel, then save the path to the selected file.
+        // If the user does not cancel, then save the paths to the selected
+        // files.
         if(returnVal == JFileChooser.APPROVE_OPTION) {
-            textFieldCSV.setText(fileChooser.getSelectedFile().getAbsolutePath());
-            model.setcsvFileLocation(fileChooser.getSelectedFile().getAbsolutePath());
+            File[] selected = fileChooser.getSelectedFiles();
+            if (selected.length == 0) {
+                selected = new File[]{fileChooser.getSelectedFile()};
+            }
+            StringBuilder location = new StringBuilder();
+            for (File file : selected) {
+                if (location.length() > 0) {
+                    location.append(File.pathSeparator);
+                }
+                location.append(file.getAbsolutePath());
+            }
+            textFieldCSV.setText(location.toString());
+            model.setcsvFileLocation(location.toString());
         }
     }//GEN-LAST:event_buttonBrowseActionPerformed
 
@@ -320,12 +351,19 @@ public class PanelMain extends javax.swing.JPanel {
      * @param evt 
      */
     private void buttonGenerateReportActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_buttonGenerateReportActionPerformed
-        try {
+        if (reportWorker != null) {
             
-            // Pass quater selection to generateReports() method.
-            model.generateReports(radioButtonSelected, Integer.parseInt(textFieldBaseYear.getText()));
-            labeStatus.setText("Reports generated successfully.");
-        } catch (Exception ex) {
+            // Cancel the reports that have not been started yet.
+            reportWorker.progress.cancel();
+            buttonGenerateReport.setEnabled(false);
+            labeStatus.setText("Cancelling Reports...");
+            return;
+        }
+        
+        int baseYear;
+        try {
+            baseYear = Integer.parseInt(textFieldBaseYear.getText());
+        } catch (NumberFormatException ex) {
             
             // Use a pop-up to inform a user that the report could not be 
             // generated.
@@ -334,11 +372,18 @@ public class PanelMain extends javax.swing.JPanel {
                         + ex.getMessage(),
                 "Generating Report Error:",
                 JOptionPane.ERROR_MESSAGE);
-            
-            // Inform user that report generating was unsuccesfull.
             labeStatus.setText("Error while generating reports.");
-            Logger.getLogger(PanelMain.class.getName()).log(Level.SEVERE, null, ex);
+            return;
         }
+        
+        // The files cannot be imported or changed while the reports are
+        // being generated.
+        buttonGenerateReport.setText("Cancel");
+        buttonImport.setEnabled(false);
+        buttonBrowse.setEnabled(false);
+        labeStatus.setText("Generating reports...");
+        reportWorker = new ReportWorker(radioButtonSelected, baseYear);
+        reportWorker.execute();
     }//GEN-LAST:event_buttonGenerateReportActionPerformed
 
     /**
@@ -445,33 +490,223 @@ public class PanelMain extends javax.swing.JPanel {
     /**
      * Event for when the import button is clicked. This method imports
      * all of the relevant data from the selected .csv file into memory.
+     * The import runs in the background, and while it does the button
+     * cancels it instead.
      * 
      * @param evt 
      */
     private void buttonImportActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_buttonImportActionPerformed
-        try {
+        if (importWorker != null) {
             
-            // Import data.
-            model.importCSVDataFromFile();
-            
-            // Inform user that the importing was succesful.
-            labeStatus.setText("Done Importing.");
-        } catch (FileNotFoundException ex) {
-            
-            // Use a pop-up to inform a user that the file was not found.
-            JOptionPane.showMessageDialog(null,
-                "The file you entered was not found by the program. " +
-                "Click the \"Browse\" button to look for a valid .csv file.",
-                "File Not Found Error",
-                JOptionPane.ERROR_MESSAGE);
-            
-            // Inform user that the importing was unsuccesfull.
-            labeStatus.setText("Error while Importing.");
-        } catch (IOException ex) {
-            Logger.getLogger(PanelMain.class.getName()).log(Level.SEVERE, null, ex);
+            // Cancel the import that is running.
+            importWorker.progress.cancel();
+            buttonImport.setEnabled(false);
+            labeStatus.setText("Cancelling Import...");
+            return;
         }
+        
+        // Reports cannot be generated and the files cannot be changed while
+        // they are being imported.
+        buttonImport.setText("Cancel");
+        buttonGenerateReport.setEnabled(false);
+        buttonBrowse.setEnabled(false);
+        labeStatus.setText("Importing...");
+        importWorker = new ImportWorker();
+        importWorker.execute();
     }//GEN-LAST:event_buttonImportActionPerformed
 
+    /**
+     * Imports the CSV files on a worker thread, showing how far it has got
+     * in the status label, and fills the GUI's lists once it is done.
+     */
+    private class ImportWorker extends SwingWorker<Void, Void> {
+
+        // How often the status label is updated, in milliseconds.
+        private static final int STATUS_INTERVAL = 250;
+
+        final ImportProgress progress = new ImportProgress();
+        private final Timer timer;
+
+        ImportWorker() {
+            timer = new Timer(STATUS_INTERVAL, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    if (!progress.isCancelled()) {
+                        labeStatus.setText("Importing... " + progress.getPercentDone()
+                                + "% (" + NumberFormat.getInstance().format(
+                                        progress.getRecordsPerSecond()) + " rows/sec)");
+                    }
+                }
+            });
+            timer.start();
+        }
+
+        @Override
+        protected Void doInBackground() throws IOException {
+            model.importCSVDataFromFile(progress);
+            return null;
+        }
+
+        @Override
+        protected void done() {
+            timer.stop();
+            importWorker = null;
+            buttonImport.setText("Import");
+            buttonImport.setEnabled(true);
+            buttonGenerateReport.setEnabled(true);
+            buttonBrowse.setEnabled(true);
+
+            try {
+                get();
+
+                // Show what was imported. A failed or cancelled import left
+                // the data as it was, so there is nothing new to show then.
+                model.publishImportedData();
+
+                // Inform user that the importing was succesful, and of any
+                // records that had to be skipped.
+                int skipped = model.getImportDiagnostics().getSkippedCount();
+                labeStatus.setText(skipped == 0 ? "Done Importing."
+                        : "Done Importing. " + skipped + " records were skipped.");
+                showImportDiagnostics();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof InterruptedIOException) {
+                    labeStatus.setText("Import cancelled.");
+                } else if (ex.getCause() instanceof FileNotFoundException) {
+                    
+                    // Use a pop-up to inform a user that the file was not found.
+                    JOptionPane.showMessageDialog(null,
+                        "The file you entered was not found by the program. " +
+                        "Click the \"Browse\" button to look for a valid .csv file.",
+                        "File Not Found Error",
+                        JOptionPane.ERROR_MESSAGE);
+                    
+                    // Inform user that the importing was unsuccesfull.
+                    labeStatus.setText("Error while Importing.");
+                } else {
+                    labeStatus.setText("Error while Importing.");
+                    Logger.getLogger(PanelMain.class.getName()).log(Level.SEVERE, null, ex.getCause());
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates the reports off the Event Dispatch Thread, showing how many
+     * are done in the status label and which were finished if it is
+     * cancelled or fails.
+     */
+    private class ReportWorker extends SwingWorker<Void, Void> {
+
+        // How often the status label is updated, in milliseconds.
+        private static final int STATUS_INTERVAL = 250;
+
+        final ReportProgress progress = new ReportProgress();
+        private final int quarter;
+        private final int baseYear;
+        // Copied here, on the Event Dispatch Thread, as the Rules window can
+        // go on editing the rules while the reports are generated.
+        private final ReportRules rules = model.copyReportRules();
+        // Replaced if the reports are made straight from the CSV files,
+        // which reads them again.
+        private final ImportDiagnostics imported = model.getImportDiagnostics();
+        private final Timer timer;
+
+        ReportWorker(int quarter, int baseYear) {
+            this.quarter = quarter;
+            this.baseYear = baseYear;
+            timer = new Timer(STATUS_INTERVAL, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    if (progress.isCancelled()) {
+                        return;
+                    }
+                    if (progress.isGeneratingReports()) {
+                        labeStatus.setText("Generating reports... "
+                                + progress.getReportsDone() + " of "
+                                + progress.getReportCount());
+                    } else {
+                        labeStatus.setText("Reading for reports... "
+                                + progress.getPercentDone() + "%");
+                    }
+                }
+            });
+            timer.start();
+        }
+
+        @Override
+        protected Void doInBackground() throws IOException {
+            model.generateReports(quarter, baseYear, rules, progress);
+            return null;
+        }
+
+        @Override
+        protected void done() {
+            timer.stop();
+            reportWorker = null;
+            buttonGenerateReport.setText("Generate Reports");
+            buttonGenerateReport.setEnabled(true);
+            buttonImport.setEnabled(true);
+            buttonBrowse.setEnabled(true);
+
+            try {
+                get();
+                labeStatus.setText("Reports generated successfully.");
+                if (model.getImportDiagnostics() != imported) {
+                    showImportDiagnostics();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                List<String> finished = progress.getFinishedReports();
+                String done = finished.size() + " of " + progress.getReportCount()
+                        + " reports were generated";
+                if (ex.getCause() instanceof InterruptedIOException) {
+                    labeStatus.setText("Reports cancelled. " + done + ".");
+                } else {
+                    
+                    // Use a pop-up to inform a user that the report could not be 
+                    // generated.
+                    JOptionPane.showMessageDialog(null,
+                        "An error occured while attempting to generate reports:\n" 
+                                + ex.getCause().getMessage(),
+                        "Generating Report Error:",
+                        JOptionPane.ERROR_MESSAGE);
+                    
+                    // Inform user that report generating was unsuccesfull.
+                    labeStatus.setText("Error while generating reports. " + done + ".");
+                    Logger.getLogger(PanelMain.class.getName()).log(Level.SEVERE, null, ex.getCause());
+                }
+                if (!finished.isEmpty()) {
+                    StringBuilder names = new StringBuilder(done).append(':');
+                    for (String report : finished) {
+                        names.append('\n').append(report);
+                    }
+                    JOptionPane.showMessageDialog(null,
+                        names.toString(),
+                        "Reports Generated",
+                        JOptionPane.INFORMATION_MESSAGE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Uses a pop-up to show the user what went wrong the last time the CSV
+     * files were read, if anything did.
+     */
+    private void showImportDiagnostics() {
+        ImportDiagnostics diagnostics = model.getImportDiagnostics();
+        if (diagnostics != null && diagnostics.hasErrors()) {
+            JOptionPane.showMessageDialog(null,
+                diagnostics.getSummary(),
+                "Import Problems",
+                JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
     /**
      * Event to launch the FrameRule pop-up. 
      * 
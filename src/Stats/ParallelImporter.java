@@ -0,0 +1,365 @@
+package Stats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a CSV file into ImportBatches on several threads at once. The file is
+ * memory-mapped and cut into byte ranges that each start at the beginning of
+ * a record, and every range is tokenized on a fork-join pool into its own
+ * batch. The batches come back in file order so that merging them gives the
+ * same result as reading the file from top to bottom.
+ *
+ * Finding record boundaries takes some care because a quoted field may
+ * contain line breaks. The quotes in every range are counted first; from
+ * those counts it is guessed whether each range starts inside a quoted field,
+ * and so which line break after the start of the range really ends a record.
+ * The guess is wrong if a stray quote in an unquoted field, which the
+ * CSVTokenizer keeps as text, throws the count off. So each range is read
+ * from its guessed start until past the next one, and records where its last
+ * record really ended. Going through the ranges in order, a range is only
+ * kept if it starts where the one before it ended; otherwise it is read again
+ * from there. The records are always the same as those of a single
+ * tokenizer reading the whole file. Until a range is kept, the records in it
+ * that cannot be read are not written to the rejected rows file.
+ *
+ * The ranges are only read a few ahead of the one being kept. When the
+ * records are tallied, each range's tally is added to the total as soon as
+ * the range is kept, so memory goes with the number of threads rather than
+ * the size of the file.
+ *
+ * @author Christopher Buss
+ */
+public class ParallelImporter {
+
+    // Ranges are about this many bytes long before being moved to a record
+    // boundary. Small enough to balance the load, large enough that the
+    // per-range overhead does not matter.
+    private static final long CHUNK_SIZE = 32L << 20;
+    // How many ranges per thread may be read ahead of the one being kept.
+    private static final int READ_AHEAD = 2;
+
+    private final int[] columns;
+    private final ReportTally tally;
+    private final ImportDiagnostics diagnostics;
+    private final ImportProgress progress;
+
+    /**
+     * @param columns The CSV columns to read, in ARR_ order.
+     */
+    public ParallelImporter(int[] columns) {
+        this(columns, null, null, null);
+    }
+
+    /**
+     * @param columns The CSV columns to read, in ARR_ order.
+     * @param tally If not null, every batch tallies its records into its own
+     * copy of this instead of keeping them, and the copy is added to this
+     * once the batch is kept.
+     * @param diagnostics The diagnostics to write the records that cannot be
+     * read to, or null.
+     * @param progress The progress of the import to add to, or null.
+     */
+    public ParallelImporter(int[] columns, ReportTally tally, ImportDiagnostics diagnostics,
+            ImportProgress progress) {
+        this.columns = columns;
+        this.tally = tally;
+        this.diagnostics = diagnostics;
+        this.progress = progress;
+    }
+
+    /**
+     * Reads part of the given file.
+     *
+     * @param fileName The CSV file to read.
+     * @param from The offset of the first record to read.
+     * @param to The offset after the last record to read.
+     * @param skipHeader Whether the first record is the header of the file.
+     * @return One batch per range, in file order.
+     * @throws IOException
+     */
+    public List<ImportBatch> read(String fileName, long from, final long to,
+            final boolean skipHeader) throws IOException {
+
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            final FileChannel channel = file.getChannel();
+            long length = to - from;
+            int count = (int) Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+            // Evenly spaced starting points, not yet on record boundaries.
+            final long[] starts = new long[count + 1];
+            for (int i = 0; i <= count; i++) {
+                starts[i] = from + length * i / count;
+            }
+
+            // Count the quotes in each range in parallel.
+            List<Callable<Long>> counts = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                final long start = starts[i];
+                final long end = starts[i + 1];
+                counts.add(new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        return countQuotes(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+                    }
+                });
+            }
+            List<Long> quotes = getAll(pool.invokeAll(counts));
+
+            // Move every starting point past the end of the record it falls
+            // in. An odd number of quotes before it means it is probably
+            // inside a quoted field.
+            final long[] boundaries = new long[count + 1];
+            boundaries[0] = from;
+            boundaries[count] = to;
+            long quotesBefore = 0;
+            for (int i = 1; i < count; i++) {
+                quotesBefore += quotes.get(i - 1);
+                boundaries[i] = Math.max(boundaries[i - 1],
+                        nextRecord(channel, starts[i], to, quotesBefore % 2 == 1));
+            }
+
+            // Tokenize each range into its own batch.
+            final List<Callable<Range>> reads = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                final long start = boundaries[i];
+                final long end = boundaries[i + 1];
+                final boolean first = i == 0;
+                reads.add(new Callable<Range>() {
+                    @Override
+                    public Range call() throws IOException {
+                        return readRange(channel, start, end, to, first && skipHeader, first,
+                                progress);
+                    }
+                });
+            }
+
+            // Keep the ranges that start where the one before really ended,
+            // and read the others again from there. The bytes of a range read
+            // again were already added to the progress the first time.
+            int ahead = READ_AHEAD * pool.getParallelism();
+            List<Future<Range>> ranges = new ArrayList<>();
+            List<ImportBatch> batches = new ArrayList<>();
+            long position = from;
+            for (int i = 0; i < count; i++) {
+                while (ranges.size() < count && ranges.size() <= i + ahead) {
+                    ranges.add(pool.submit(reads.get(ranges.size())));
+                }
+                Range range = get(ranges.get(i));
+                ranges.set(i, null);
+                if (range.start != position) {
+                    range = readRange(channel, position, boundaries[i + 1], to, false, true, null);
+                }
+                range.batch.releaseRejectedRows();
+                if (tally != null) {
+                    range.batch.addTallyTo(tally);
+                }
+                batches.add(range.batch);
+                position = range.end;
+            }
+            return batches;
+        } finally {
+            pool.shutdownNow();
+            file.close();
+        }
+    }
+
+    /**
+     * Reads the records that start in a range of the file into a batch.
+     *
+     * @param channel The file.
+     * @param start The offset of the first record.
+     * @param end The offset to stop at. The last record is read to its end
+     * even if that is past it.
+     * @param size The end of the part of the file being read.
+     * @param skipHeader Whether the first record is the header of the file.
+     * @param known Whether start is known to be the beginning of a record. If
+     * not, the records that cannot be read are held back in the batch.
+     * @param progress The progress of the import, or null.
+     */
+    private Range readRange(FileChannel channel, long start, long end, long size,
+            boolean skipHeader, boolean known, ImportProgress progress) throws IOException {
+        ImportBatch batch = new ImportBatch(columns, tally == null ? null : tally.copy(),
+                diagnostics);
+        if (!known) {
+            batch.holdRejectedRows();
+        }
+        CSVTokenizer tokenizer = new CSVTokenizer(new ChannelInputStream(channel, start, size));
+        if (skipHeader) {
+            // Skip header of file.
+            tokenizer.nextRecord();
+        }
+        batch.read(tokenizer, progress, end - start);
+        return new Range(batch, start, start + tokenizer.getPosition());
+    }
+
+    /**
+     * Counts the quote characters in the buffer.
+     */
+    private static long countQuotes(ByteBuffer buffer) {
+        long quotes = 0;
+        int limit = buffer.limit();
+        for (int i = 0; i < limit; i++) {
+            if (buffer.get(i) == '"') {
+                quotes++;
+            }
+        }
+        return quotes;
+    }
+
+    /**
+     * Finds the first record that starts at or after the given offset.
+     *
+     * @param channel The file.
+     * @param offset Where to start looking.
+     * @param size The end of the part of the file being read.
+     * @param quoted Whether offset is thought to be inside a quoted field.
+     * @return The offset of the record, or size if there is none.
+     */
+    private static long nextRecord(FileChannel channel, long offset, long size,
+            boolean quoted) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        long position = offset;
+        boolean carriageReturn = false;
+        while (position < size) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                break;
+            }
+            n = (int) Math.min(n, size - position);
+            for (int i = 0; i < n; i++) {
+                // A record ends at a line break of any kind, as in the
+                // CSVTokenizer, so a \r\n is one line break.
+                byte b = buffer.get(i);
+                if (carriageReturn) {
+                    return position + i + (b == '\n' ? 1 : 0);
+                }
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted) {
+                    return position + i + 1;
+                } else if (b == '\r' && !quoted) {
+                    carriageReturn = true;
+                }
+            }
+            position += n;
+        }
+        return size;
+    }
+
+    /**
+     * Waits for all of the futures and returns their results in order.
+     */
+    static <T> List<T> getAll(List<Future<T>> futures) throws IOException {
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(get(future));
+        }
+        return results;
+    }
+
+    /**
+     * Waits for the future and returns its result.
+     */
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import was interrupted", ex);
+        } catch (ExecutionException ex) {
+
+            // Newer pools wrap what a task threw in RuntimeExceptions.
+            Throwable cause = ex.getCause();
+            while (cause instanceof RuntimeException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * The batch of a range, and where its first and last records really
+     * started and ended.
+     */
+    private static class Range {
+
+        final ImportBatch batch;
+        final long start;
+        final long end;
+
+        Range(ImportBatch batch, long start, long end) {
+            this.batch = batch;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Lets a CSVTokenizer read straight out of the file, mapping it a window
+     * at a time so that a range can be read past its end without mapping the
+     * rest of the file at once.
+     */
+    private static class ChannelInputStream extends InputStream {
+
+        private static final long WINDOW_SIZE = 8L << 20;
+
+        private final FileChannel channel;
+        private final long size;
+        private long position;
+        private MappedByteBuffer buffer;
+
+        ChannelInputStream(FileChannel channel, long position, long size) {
+            this.channel = channel;
+            this.position = position;
+            this.size = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        /**
+         * Maps the next window if the current one has been read.
+         */
+        private boolean hasRemaining() throws IOException {
+            if (buffer != null && buffer.hasRemaining()) {
+                return true;
+            }
+            if (position >= size) {
+                return false;
+            }
+            long length = Math.min(WINDOW_SIZE, size - position);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            position += length;
+            return true;
+        }
+    }
+}
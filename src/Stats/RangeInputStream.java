@@ -0,0 +1,75 @@
+package Stats;
+
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+
+/**
+ * Reads one range of bytes out of a file. Used to import only the part of a
+ * CSV file that has not been imported yet, and to stop at the length the file
+ * had when the import started even if more is being written to it.
+ *
+ * @author Christopher Buss
+ */
+public class RangeInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    /**
+     * @param fileName The file to read.
+     * @param from The offset of the first byte to read.
+     * @param to The offset after the last byte to read.
+     * @throws IOException
+     */
+    public RangeInputStream(String fileName, long from, long to) throws IOException {
+        super(new FileInputStream(fileName));
+        try {
+            ((FileInputStream) in).getChannel().position(from);
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+        remaining = Math.max(0, to - from);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining == 0) {
+            return -1;
+        }
+        int b = in.read();
+        if (b != -1) {
+            remaining--;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining == 0) {
+            return -1;
+        }
+        int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n > 0) {
+            remaining -= n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,157 @@
+package Stats;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rules of every report turned around: for each "where" and each value
+ * in an "equals", the reports that have that "equals". A report follows a
+ * record when every "where" it has "equals" for lists the record's value, so
+ * the reports a record follows are found by looking up its six values and
+ * counting how often each report comes up (see ReportMatcher). Reports that
+ * do not constrain a "where" never come up for it and are not touched, so
+ * the cost of a record depends on how many reports list its values rather
+ * than on how many reports there are.
+ *
+ * @author Christopher Buss
+ */
+public class ReportIndex {
+
+    private static final int[] NONE = new int[0];
+
+    // The reports with each value as an "equals", indexed by "where".
+    private final List<HashMap<String, int[]>> reportsByValue = new ArrayList<>();
+    // The reports without "equals" for each "where", indexed by "where".
+    private final int[][] unconstrained = new int[Model.NUM_OF_OPTIONS][];
+    // The number of "where"s each report has "equals" for.
+    private final int[] required;
+    // The reports without any "equals", which every record follows.
+    private final int[] unconditional;
+
+    /**
+     * Builds the index.
+     *
+     * @param rules The "equals" of each report, indexed by report and then
+     * by "where".
+     */
+    public ReportIndex(List<? extends List<? extends Collection<String>>> rules) {
+        required = new int[rules.size()];
+        for (int where = 0; where < Model.NUM_OF_OPTIONS; where++) {
+
+            // A value listed twice by one report must only count once.
+            HashMap<String, List<Integer>> reports = new HashMap<>();
+            List<Integer> any = new ArrayList<>();
+            for (int i = 0; i < rules.size(); i++) {
+                Collection<String> equals = rules.get(i).get(where);
+                if (equals.isEmpty()) {
+                    any.add(i);
+                    continue;
+                }
+                required[i]++;
+                for (String value : new HashSet<>(equals)) {
+                    List<Integer> list = reports.get(value);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        reports.put(value, list);
+                    }
+                    list.add(i);
+                }
+            }
+
+            HashMap<String, int[]> postings = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> entry : reports.entrySet()) {
+                postings.put(entry.getKey(), toArray(entry.getValue()));
+            }
+            reportsByValue.add(postings);
+            unconstrained[where] = toArray(any);
+        }
+
+        List<Integer> always = new ArrayList<>();
+        for (int i = 0; i < required.length; i++) {
+            if (required[i] == 0) {
+                always.add(i);
+            }
+        }
+        unconditional = toArray(always);
+    }
+
+    /**
+     * Returns the reports that have a value as an "equals".
+     *
+     * @param where The "where".
+     * @param value The value.
+     * @return The reports in ascending order, possibly none.
+     */
+    public int[] getReports(int where, String value) {
+        int[] reports = reportsByValue.get(where).get(value);
+        return reports == null ? NONE : reports;
+    }
+
+    /**
+     * Returns every value that some report has as an "equals" for a "where".
+     *
+     * @param where The "where".
+     * @return The values.
+     */
+    public Collection<String> getValues(int where) {
+        return reportsByValue.get(where).keySet();
+    }
+
+    /**
+     * Returns the "where"s that some report has "equals" for. The others
+     * need not be looked at, as every report accepts every value of them.
+     *
+     * @return The "where"s in ascending order.
+     */
+    public int[] getConstrainedWheres() {
+        List<Integer> wheres = new ArrayList<>();
+        for (int where = 0; where < Model.NUM_OF_OPTIONS; where++) {
+            if (!reportsByValue.get(where).isEmpty()) {
+                wheres.add(where);
+            }
+        }
+        return toArray(wheres);
+    }
+
+    /**
+     * Returns the reports that have no "equals" for a "where", and so accept
+     * every value of it.
+     *
+     * @param where The "where".
+     * @return The reports in ascending order.
+     */
+    public int[] getUnconstrained(int where) {
+        return unconstrained[where];
+    }
+
+    /**
+     * Returns the number of "where"s each report has "equals" for, which is
+     * how many times a report has to come up for a record to follow it.
+     *
+     * @return The counts, indexed by report.
+     */
+    public int[] getRequired() {
+        return required;
+    }
+
+    /**
+     * Returns the reports that have no "equals" at all.
+     *
+     * @return The reports in ascending order.
+     */
+    public int[] getUnconditional() {
+        return unconditional;
+    }
+
+    static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
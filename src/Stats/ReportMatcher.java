@@ -0,0 +1,74 @@
+package Stats;
+
+/**
+ * Finds the reports a record follows from the reports listed for each of its
+ * values in a ReportIndex. Every time a report comes up its count goes up,
+ * and once the count reaches the number of "where"s the report has "equals"
+ * for, the record follows it. Counts are reset by stamping them with the
+ * record they belong to, so nothing has to be cleared between records.
+ *
+ * A matcher is not thread-safe. Each thread uses its own.
+ *
+ * @author Christopher Buss
+ */
+public class ReportMatcher {
+
+    private final int[] required;
+    private final int[] unconditional;
+    private final int[] counts;
+    // The record each count belongs to.
+    private final int[] stamps;
+    private int record;
+    private final int[] matches;
+
+    /**
+     * Creates a matcher.
+     *
+     * @param required The number of "where"s each report has "equals" for.
+     * @param unconditional The reports every record follows.
+     */
+    public ReportMatcher(int[] required, int[] unconditional) {
+        this.required = required;
+        this.unconditional = unconditional;
+        this.counts = new int[required.length];
+        this.stamps = new int[required.length];
+        this.matches = new int[required.length];
+    }
+
+    /**
+     * Finds the reports a record follows.
+     *
+     * @param reports The reports listed for each of the record's values, one
+     * array for each "where" that any report has "equals" for.
+     * @return The number of reports found. They are the first entries of
+     * getMatches().
+     */
+    public int match(int[][] reports) {
+        record++;
+        int n = 0;
+        for (int[] listed : reports) {
+            for (int report : listed) {
+                if (stamps[report] != record) {
+                    stamps[report] = record;
+                    counts[report] = 0;
+                }
+                if (++counts[report] == required[report]) {
+                    matches[n++] = report;
+                }
+            }
+        }
+        for (int report : unconditional) {
+            matches[n++] = report;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the reports found by the last match().
+     *
+     * @return The reports; only the entries counted by match() are valid.
+     */
+    public int[] getMatches() {
+        return matches;
+    }
+}
@@ -0,0 +1,144 @@
+package Stats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A run of months to write reports for, such as a quarter or a year, the
+ * name its report files end in, and the earlier runs of months it is
+ * compared with.
+ *
+ * Each comparison is the same run of months moved back by some number of
+ * months: 12 for the year before, 12, 24 and 36 for the trailing three years,
+ * or the length of the run for the one right before it, as in month over
+ * month or quarter over quarter. Every comparison is a column of the report
+ * next to the period's own.
+ *
+ * @author Christopher Buss
+ */
+public class ReportPeriod {
+
+    /**
+     * Stands for the run of months right before the period, however long the
+     * period is, in the comparisons given to the constructor. This way one
+     * list of comparisons gives month over month for a month and quarter over
+     * quarter for a quarter.
+     */
+    public static final int PREVIOUS = 0;
+
+    // The comparison the reports have always had.
+    private static final int[] YEAR_BEFORE = {12};
+
+    private final int firstMonth;
+    private final int lastMonth;
+    private final String name;
+    // How many months back each comparison is, furthest first.
+    private final int[] comparisons;
+
+    /**
+     * Creates a period compared with the same months of the year before.
+     *
+     * @param firstMonth The first month, packed as yyyymm.
+     * @param lastMonth The last month, packed as yyyymm. Must not be before
+     * firstMonth.
+     * @param name The end of the name of each report file.
+     */
+    public ReportPeriod(int firstMonth, int lastMonth, String name) {
+        this(firstMonth, lastMonth, name, YEAR_BEFORE);
+    }
+
+    /**
+     * Creates a period.
+     *
+     * @param firstMonth The first month, packed as yyyymm.
+     * @param lastMonth The last month, packed as yyyymm. Must not be before
+     * firstMonth.
+     * @param name The end of the name of each report file.
+     * @param comparisons How many months back each comparison is. Each must
+     * be at least 1, or PREVIOUS. A comparison given more than once, such as
+     * 12 and PREVIOUS for a year, is only written once.
+     */
+    public ReportPeriod(int firstMonth, int lastMonth, String name, int[] comparisons) {
+        if (lastMonth < firstMonth) {
+            throw new IllegalArgumentException("The last month is before the first month.");
+        }
+        for (int months : comparisons) {
+            if (months < 1 && months != PREVIOUS) {
+                throw new IllegalArgumentException("A comparison must be at least a month back.");
+            }
+        }
+        this.firstMonth = firstMonth;
+        this.lastMonth = lastMonth;
+        this.name = name;
+
+        // Sort the comparisons so that they are written oldest first, and
+        // drop any that are the same once PREVIOUS is the period's length.
+        TreeSet<Integer> months = new TreeSet<>();
+        for (int back : comparisons) {
+            months.add(back == PREVIOUS ? getLength() : back);
+        }
+        this.comparisons = new int[months.size()];
+        int i = 0;
+        for (int back : months.descendingSet()) {
+            this.comparisons[i++] = back;
+        }
+    }
+
+    public int getFirstMonth() {
+        return firstMonth;
+    }
+
+    public int getLastMonth() {
+        return lastMonth;
+    }
+
+    /**
+     * Returns the number of months in the period, which is how many months
+     * back the run of months right before it is.
+     *
+     * @return The number of months.
+     */
+    public int getLength() {
+        return DateParser.monthsBetween(firstMonth, lastMonth) + 1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns how many months back each comparison is.
+     *
+     * @return The months, furthest first.
+     */
+    public int[] getComparisons() {
+        return comparisons.clone();
+    }
+
+    /**
+     * Finds every month the reports of some periods cover: the months of each
+     * period and of each of its comparisons. Each month is only tallied once,
+     * however many periods use it.
+     *
+     * @param periods The periods. There must be at least one.
+     * @return The packed yyyymm months, in order.
+     */
+    public static List<Integer> getMonths(List<ReportPeriod> periods) {
+        TreeSet<Integer> months = new TreeSet<>();
+        for (ReportPeriod period : periods) {
+            addMonths(months, period.firstMonth, period.lastMonth);
+            for (int back : period.comparisons) {
+                addMonths(months, DateParser.addMonths(period.firstMonth, -back),
+                        DateParser.addMonths(period.lastMonth, -back));
+            }
+        }
+        return new ArrayList<>(months);
+    }
+
+    private static void addMonths(TreeSet<Integer> months, int from, int to) {
+        for (int month = from; month <= to; month = DateParser.addMonths(month, 1)) {
+            months.add(month);
+        }
+    }
+}
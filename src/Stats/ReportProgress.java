@@ -0,0 +1,86 @@
+package Stats;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tracks how far report generation has got, and lets the user cancel it.
+ * The reports are generated on several threads at once, each of which adds
+ * the report it finished, while the GUI reads the progress from the Event
+ * Dispatch Thread.
+ *
+ * When the reports are made straight from the CSV files, the bytes read are
+ * tracked as for an import until the files have been read.
+ *
+ * @author Christopher Buss
+ */
+public class ReportProgress extends ImportProgress {
+
+    private volatile int reportCount;
+    // The reports written so far, in the order they were finished.
+    private final List<String> finishedReports = new ArrayList<>();
+
+    /**
+     * Sets how many reports there are to generate.
+     *
+     * @param count The number of reports.
+     */
+    public void startReports(int count) {
+        reportCount = count;
+    }
+
+    /**
+     * Records that a report has been written.
+     *
+     * @param report The name of the report.
+     */
+    public void reportFinished(String report) {
+        synchronized (finishedReports) {
+            finishedReports.add(report);
+        }
+    }
+
+    /**
+     * Returns whether the reports are being generated yet, rather than the
+     * CSV files still being read.
+     *
+     * @return True once startReports() has been called.
+     */
+    public boolean isGeneratingReports() {
+        return reportCount > 0;
+    }
+
+    public int getReportCount() {
+        return reportCount;
+    }
+
+    public int getReportsDone() {
+        synchronized (finishedReports) {
+            return finishedReports.size();
+        }
+    }
+
+    /**
+     * Returns the reports written so far.
+     *
+     * @return A copy of the names, in the order the reports were finished.
+     */
+    public List<String> getFinishedReports() {
+        synchronized (finishedReports) {
+            return new ArrayList<>(finishedReports);
+        }
+    }
+
+    /**
+     * Throws if report generation was cancelled.
+     *
+     * @throws InterruptedIOException If cancel() has been called.
+     */
+    @Override
+    public void checkCancelled() throws InterruptedIOException {
+        if (isCancelled()) {
+            throw new InterruptedIOException("Report generation was cancelled");
+        }
+    }
+}
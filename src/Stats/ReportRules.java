@@ -0,0 +1,46 @@
+package Stats;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * A copy of the rules and bucket scheme of every report, taken on the Event
+ * Dispatch Thread so that the reports can be generated on another thread
+ * while the rules go on being edited.
+ *
+ * @author Christopher Buss
+ */
+public class ReportRules {
+
+    private final Map<String, ArrayList<ArrayList<String>>> rules;
+    private final Map<String, BucketScheme> schemes;
+
+    /**
+     * @param rules The rules of each report, which must not be changed
+     * afterwards.
+     * @param schemes The bucket scheme of each report.
+     */
+    ReportRules(Map<String, ArrayList<ArrayList<String>>> rules,
+            Map<String, BucketScheme> schemes) {
+        this.rules = rules;
+        this.schemes = schemes;
+    }
+
+    /**
+     * Returns the rules of each report.
+     *
+     * @return The rules, by report.
+     */
+    public Map<String, ArrayList<ArrayList<String>>> getRules() {
+        return rules;
+    }
+
+    /**
+     * Returns the bucket scheme of each report.
+     *
+     * @return The schemes, by report.
+     */
+    public Map<String, BucketScheme> getSchemes() {
+        return schemes;
+    }
+}
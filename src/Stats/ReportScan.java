@@ -0,0 +1,346 @@
+package Stats;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Tallies the stats of every report from the DataCube of the imported
+ * entries in a single pass over its cells. Each cell is visited once and
+ * rolled up into every report whose rules it follows, so the time taken
+ * grows with the cells and the matches rather than with the cells times the
+ * reports, and never with the number of entries. A cell holds every entry
+ * with the same month, "where" values and price range, which follow the same
+ * reports.
+ *
+ * The rules are turned around into a ReportIndex before the scan, and for
+ * every "where" and every code of its dictionary the reports that list the
+ * value are looked up once. When each value is listed by only a few reports,
+ * as with many reports on one municipality or lake each, a cell finds its
+ * reports by counting how often each comes up for its values with a
+ * ReportMatcher, which never touches the reports that do not list them.
+ * When values are listed by many reports, the set of reports accepting each
+ * code is kept instead and a cell intersects the sets of its values, which
+ * costs a word per 64 reports. The indexes tell how many cells hold each
+ * value, so the cheaper of the two is known before the scan starts. A
+ * "where" that no report has "equals" for is not looked at at all.
+ *
+ * Reports that only a few cells can follow, such as one on a single lake or
+ * condo complex, are not scanned at all. Their cells are picked out up front
+ * with the cube's bitmap indexes: the cells of each "where"'s "equals" are
+ * combined, the "where"s are intersected, and only the cells left are rolled
+ * up. If every report is like that, the scan is skipped.
+ *
+ * Every month that some period or one of its comparisons covers is tallied
+ * once, and the reports of all of the periods are added up from the same
+ * months.
+ *
+ * Different months may be tallied on different threads at once, as each
+ * month only adds to its own stats. The same month must not be tallied twice.
+ *
+ * @author Christopher Buss
+ */
+public class ReportScan {
+
+    private final DataCube cube;
+    private final int reportCount;
+    // The months the reports cover, in order. The first is the one the stats
+    // are counted from.
+    private final List<Integer> months;
+    private final int firstTallied;
+
+    // A report is picked out with the bitmap indexes when its most selective
+    // "where" lets through at most this share of the cells of its months.
+    private static final int BITMAP_SHARE = 8;
+
+    // The cells each report follows, or null for the reports found by the
+    // scan.
+    private final RowBitmap[] selections;
+    // The reports found by the scan. The scan numbers them by their place
+    // in this array.
+    private final int[] scanned;
+    // The "where"s that some scanned report has "equals" for.
+    private final int[] wheres;
+    // The scanned reports that list each code, indexed as wheres and then by
+    // code.
+    private final int[][][] reportsByCode;
+    // How many times each scanned report has to come up, and the ones that
+    // every cell follows.
+    private final int[] required;
+    private final int[] unconditional;
+    // The scanned reports that accept each code, indexed as wheres and then
+    // by code, if cells are matched by intersecting; null if by counting.
+    private final BitSet[][] acceptedByCode;
+    // The column of each report's bucket scheme, and the range of the
+    // scheme each of the cube's ranges of the column falls in.
+    private final int[] columns;
+    private final int[][] bucketMaps;
+    // The stats of each report, indexed by report, then month counted from
+    // firstTallied, then as in Model.addSale. Months that are not tallied
+    // stay empty.
+    private final long[][][] stats;
+
+    /**
+     * Prepares a scan.
+     *
+     * @param cube The imported entries, sorted. Must not change during the
+     * scan.
+     * @param rules The rules of each report.
+     * @param schemes The bucket scheme of each report, each one the cube was
+     * made with.
+     * @param periods The periods being reported on. Their months and the
+     * months of all of their comparisons are tallied in the same scan.
+     */
+    public ReportScan(DataCube cube, List<ArrayList<ArrayList<String>>> rules,
+            List<BucketScheme> schemes, List<ReportPeriod> periods) {
+        this.cube = cube;
+        this.reportCount = rules.size();
+        this.months = ReportPeriod.getMonths(periods);
+        this.firstTallied = months.get(0);
+
+        int cellsToScan = 0;
+        for (int month : getMonths()) {
+            cellsToScan += cube.getEndCell(month) - cube.getFirstCell(month);
+        }
+
+        selections = new RowBitmap[reportCount];
+        List<Integer> scannedReports = new ArrayList<>();
+        List<ArrayList<ArrayList<String>>> scannedRules = new ArrayList<>();
+        for (int i = 0; i < reportCount; i++) {
+            selections[i] = select(new RulePredicate(rules.get(i), cube.getDataset()), cellsToScan);
+            if (selections[i] == null) {
+                scannedReports.add(i);
+                scannedRules.add(rules.get(i));
+            }
+        }
+        scanned = ReportIndex.toArray(scannedReports);
+
+        ReportIndex index = new ReportIndex(scannedRules);
+        wheres = index.getConstrainedWheres();
+        reportsByCode = new int[wheres.length][][];
+        for (int i = 0; i < wheres.length; i++) {
+            reportsByCode[i] = findReportsByCode(wheres[i], index);
+        }
+        required = index.getRequired();
+        unconditional = index.getUnconditional();
+
+        // Counting looks at every report listed for each of a cell's values,
+        // intersecting at every word of each "where"'s set. Go by whichever
+        // looks at less on average.
+        double listedPerCell = 0;
+        for (int i = 0; i < wheres.length; i++) {
+            for (int code = 0; code < reportsByCode[i].length; code++) {
+                listedPerCell += (double) reportsByCode[i][code].length
+                        * cube.getIndex(wheres[i], code).getCardinality()
+                        / Math.max(1, cube.size());
+            }
+        }
+        int wordsPerCell = wheres.length * ((scanned.length + 63) / 64);
+        if (listedPerCell <= wordsPerCell) {
+            acceptedByCode = null;
+        } else {
+            acceptedByCode = new BitSet[wheres.length][];
+            for (int i = 0; i < wheres.length; i++) {
+                acceptedByCode[i] = findAcceptedByCode(i, index);
+            }
+        }
+
+        columns = new int[reportCount];
+        bucketMaps = new int[reportCount][];
+        stats = new long[reportCount][][];
+        int monthCount = DateParser.monthsBetween(firstTallied, months.get(months.size() - 1)) + 1;
+        for (int i = 0; i < reportCount; i++) {
+            columns[i] = schemes.get(i).getColumn();
+            bucketMaps[i] = cube.getBucketMap(schemes.get(i));
+            stats[i] = new long[monthCount][Model.STAT_BUCKETS + schemes.get(i).getBucketCount()];
+        }
+    }
+
+    /**
+     * Returns the months the reports cover: the months of the periods and of
+     * their comparisons.
+     *
+     * @return The packed yyyymm months, in order.
+     */
+    public List<Integer> getMonths() {
+        return months;
+    }
+
+    /**
+     * Adds the cells of one month, and so the entries (houses sold) in them,
+     * to the stats of every report whose rules they follow.
+     *
+     * @param month One of the packed months of getMonths().
+     */
+    public void tallyMonth(int month) {
+
+        int offset = DateParser.monthsBetween(firstTallied, month);
+        int first = cube.getFirstCell(month);
+        int end = cube.getEndCell(month);
+        for (int i = 0; i < reportCount; i++) {
+            if (selections[i] != null) {
+                for (int cell : selections[i].getRows(first, end)) {
+                    cube.addTo(stats[i][offset], cell, columns[i], bucketMaps[i]);
+                }
+            }
+        }
+        if (scanned.length == 0) {
+            return;
+        }
+
+        if (acceptedByCode == null) {
+            scanByCounting(first, end, offset);
+        } else {
+            scanByIntersecting(first, end, offset);
+        }
+    }
+
+    /**
+     * Adds the cells in a range to the scanned reports they follow, found by
+     * counting with a ReportMatcher.
+     */
+    private void scanByCounting(int first, int end, int offset) {
+        int[][] categories = getCategories();
+
+        ReportMatcher matcher = new ReportMatcher(required, unconditional);
+        int[][] listed = new int[wheres.length][];
+        int[] matches = matcher.getMatches();
+        for (int cell = first; cell < end; cell++) {
+
+            // The reports whose rules accept every "where" of the cell.
+            for (int i = 0; i < wheres.length; i++) {
+                listed[i] = reportsByCode[i][categories[i][cell]];
+            }
+            int n = matcher.match(listed);
+            for (int k = 0; k < n; k++) {
+                int report = scanned[matches[k]];
+                cube.addTo(stats[report][offset], cell, columns[report], bucketMaps[report]);
+            }
+        }
+    }
+
+    /**
+     * Adds the cells in a range to the scanned reports they follow, found by
+     * intersecting the reports that accept each of their values.
+     */
+    private void scanByIntersecting(int first, int end, int offset) {
+        int[][] categories = getCategories();
+
+        BitSet matching = new BitSet(scanned.length);
+        for (int cell = first; cell < end; cell++) {
+
+            // The reports whose rules accept every "where" of the cell.
+            matching.clear();
+            matching.or(acceptedByCode[0][categories[0][cell]]);
+            for (int i = 1; i < wheres.length && !matching.isEmpty(); i++) {
+                matching.and(acceptedByCode[i][categories[i][cell]]);
+            }
+            for (int k = matching.nextSetBit(0); k >= 0; k = matching.nextSetBit(k + 1)) {
+                int report = scanned[k];
+                cube.addTo(stats[report][offset], cell, columns[report], bucketMaps[report]);
+            }
+        }
+    }
+
+    private int[][] getCategories() {
+        int[][] categories = new int[wheres.length][];
+        for (int i = 0; i < wheres.length; i++) {
+            categories[i] = cube.getCategory(wheres[i]);
+        }
+        return categories;
+    }
+
+    /**
+     * Returns the totals of a report over the months the reports cover. The
+     * scan must be finished.
+     *
+     * @param report The index of the report in the rules.
+     * @return The totals.
+     */
+    public MonthlyTotals getTotals(int report) {
+        return new MonthlyTotals(firstTallied, stats[report]);
+    }
+
+    /**
+     * Picks out the cells a report follows with the bitmap indexes, if few
+     * enough cells can follow it.
+     *
+     * @param predicate The rules of the report.
+     * @param cellsToScan The number of cells in the months of the reports.
+     * @return The cells, or null if the report is left to the scan.
+     */
+    private RowBitmap select(RulePredicate predicate, int cellsToScan) {
+
+        // The cells of each "where" with "equals". The most selective one
+        // bounds how many cells can follow the report.
+        List<RowBitmap> wheresCells = new ArrayList<>();
+        int bound = Integer.MAX_VALUE;
+        for (int where = 0; where < Model.NUM_OF_OPTIONS; where++) {
+            BitSet codes = predicate.getCodes(where);
+            if (codes == null) {
+                continue;
+            }
+            List<RowBitmap> valuesCells = new ArrayList<>();
+            int count = 0;
+            for (int code = codes.nextSetBit(0); code >= 0; code = codes.nextSetBit(code + 1)) {
+                valuesCells.add(cube.getIndex(where, code));
+                count += cube.getIndex(where, code).getCardinality();
+            }
+            if (count < bound) {
+                bound = count;
+                wheresCells.add(0, RowBitmap.or(valuesCells));
+            } else {
+                wheresCells.add(RowBitmap.or(valuesCells));
+            }
+        }
+        if (bound > cellsToScan / BITMAP_SHARE) {
+            return null;
+        }
+
+        RowBitmap selection = wheresCells.get(0);
+        for (int i = 1; i < wheresCells.size() && selection.getCardinality() > 0; i++) {
+            selection = selection.and(wheresCells.get(i));
+        }
+        return selection;
+    }
+
+    /**
+     * Works out which scanned reports accept each code of a "where": the
+     * ones that list it and the ones without "equals" for the "where".
+     *
+     * @param i The index of the "where" in wheres.
+     */
+    private BitSet[] findAcceptedByCode(int i, ReportIndex index) {
+        BitSet unconstrained = new BitSet(scanned.length);
+        for (int report : index.getUnconstrained(wheres[i])) {
+            unconstrained.set(report);
+        }
+        BitSet[] accepted = new BitSet[reportsByCode[i].length];
+        for (int code = 0; code < accepted.length; code++) {
+            accepted[code] = (BitSet) unconstrained.clone();
+            for (int report : reportsByCode[i][code]) {
+                accepted[code].set(report);
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Looks up the scanned reports that list each code of a "where".
+     */
+    private int[][] findReportsByCode(int where, ReportIndex index) {
+        ValueDictionary values = cube.getDataset().getDictionary(where);
+        int[][] reports = new int[values.size()][];
+        int[] none = new int[0];
+        for (int code = 0; code < reports.length; code++) {
+            reports[code] = none;
+        }
+        for (String value : index.getValues(where)) {
+            int code = values.getCode(value);
+            if (code != -1) {
+                reports[code] = index.getReports(where, value);
+            }
+        }
+        return reports;
+    }
+}
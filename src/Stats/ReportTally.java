@@ -0,0 +1,207 @@
+package Stats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tallies the stats of every report straight from the records of a CSV file,
+ * without keeping the records. Each record is checked against the rules of
+ * all of the reports at once and added to the stats of the ones it follows,
+ * so the memory used depends only on the number of reports and months.
+ *
+ * Records are matched with a ReportIndex of the rules: the reports that list
+ * each of a record's six values are looked up, and a ReportMatcher counts
+ * which of them come up for every "where" they have "equals" for. Reports
+ * that do not list the values are never touched, so a record costs six
+ * lookups and the reports that list them however many reports there are.
+ *
+ * A tally is not thread-safe. Each thread fills its own copy() and the
+ * copies are combined with addAll().
+ *
+ * @author Christopher Buss
+ */
+public class ReportTally {
+
+    // The record columns holding each "where", indexed by "where".
+    private static final int[] WHERE_COLUMNS = {
+        Model.ARR_COUNTY, Model.ARR_MUNICIPALITY, Model.ARR_ZIP_CODE,
+        Model.ARR_BODY_OF_WATER, Model.ARR_CONDO_NAME, Model.ARR_PROPERTY_TYPE
+    };
+
+    private final List<String> reports;
+    private final ReportIndex index;
+    // The bucket scheme of each report, indexed as reports.
+    private final List<BucketScheme> schemes;
+    private final String company;
+    private final List<ReportPeriod> periods;
+    // The first month the stats are counted from, and whether each month
+    // counted from it is covered by some period or comparison.
+    private final int firstTallied;
+    private final boolean[] tallied;
+
+    // The "where"s that some report has "equals" for.
+    private final int[] wheres;
+    private final ReportMatcher matcher;
+    private final int[][] listed;
+    // Whether some report's scheme splits on each BucketScheme column.
+    private final boolean[] bucketed = new boolean[BucketScheme.NUM_OF_COLUMNS];
+    // The value of each BucketScheme column of the record being added.
+    private final long[] values = new long[BucketScheme.NUM_OF_COLUMNS];
+    // Whether each agency seen so far is COMPANY.
+    private final HashMap<String, Boolean> companyAgencies = new HashMap<>();
+    // The stats of each report, indexed by report, then month counted from
+    // firstTallied, then as in Model.addSale. Months that are not tallied
+    // stay empty.
+    private final long[][][] stats;
+
+    /**
+     * Creates an empty tally.
+     *
+     * @param rulesData The rules of each report.
+     * @param schemes The bucket scheme of each report.
+     * @param company The name that marks an agency as COMPANY.
+     * @param periods The periods being reported on. Their months and the
+     * months of all of their comparisons are tallied.
+     */
+    public ReportTally(Map<String, ArrayList<ArrayList<String>>> rulesData,
+            Map<String, BucketScheme> schemes, String company, List<ReportPeriod> periods) {
+        this(new ArrayList<>(rulesData.keySet()),
+                new ReportIndex(new ArrayList<>(rulesData.values())),
+                getSchemes(rulesData.keySet(), schemes), company, periods);
+    }
+
+    private ReportTally(List<String> reports, ReportIndex index, List<BucketScheme> schemes,
+            String company, List<ReportPeriod> periods) {
+        this.reports = reports;
+        this.index = index;
+        this.schemes = schemes;
+        this.company = company;
+        this.periods = periods;
+
+        List<Integer> covered = ReportPeriod.getMonths(periods);
+        firstTallied = covered.get(0);
+        tallied = new boolean[DateParser.monthsBetween(firstTallied,
+                covered.get(covered.size() - 1)) + 1];
+        for (int month : covered) {
+            tallied[DateParser.monthsBetween(firstTallied, month)] = true;
+        }
+
+        wheres = index.getConstrainedWheres();
+        matcher = new ReportMatcher(index.getRequired(), index.getUnconditional());
+        listed = new int[wheres.length][];
+        stats = new long[reports.size()][][];
+        for (int i = 0; i < reports.size(); i++) {
+            bucketed[schemes.get(i).getColumn()] = true;
+            stats[i] = new long[tallied.length][Model.STAT_BUCKETS + schemes.get(i).getBucketCount()];
+        }
+    }
+
+    private static List<BucketScheme> getSchemes(Iterable<String> reports,
+            Map<String, BucketScheme> schemes) {
+        List<BucketScheme> list = new ArrayList<>();
+        for (String report : reports) {
+            list.add(schemes.get(report));
+        }
+        return list;
+    }
+
+    /**
+     * Creates an empty tally for the same reports and months.
+     *
+     * @return The new tally.
+     */
+    public ReportTally copy() {
+        return new ReportTally(reports, index, schemes, company, periods);
+    }
+
+    /**
+     * Adds a record to the stats of every report whose rules it follows.
+     *
+     * @param record The fields of the record in ARR_ order.
+     * @param month The packed yyyymm month the property sold in.
+     * @param soldPrice The sold price in cents.
+     */
+    public void add(String[] record, int month, long soldPrice) {
+
+        // Only the months of the reports are counted.
+        int offset = DateParser.monthsBetween(firstTallied, month);
+        if (offset < 0 || offset >= tallied.length || !tallied[offset]) {
+            return;
+        }
+
+        for (int i = 0; i < wheres.length; i++) {
+            listed[i] = index.getReports(wheres[i], record[WHERE_COLUMNS[wheres[i]]]);
+        }
+        int n = matcher.match(listed);
+        if (n == 0) {
+            return;
+        }
+
+        int sides = 0;
+        if (isCompany(record[Model.ARR_LISTING_COMPANY_NAME])) {
+            sides++;
+        }
+        if (isCompany(record[Model.ARR_SELLING_COMPANY_NAME])) {
+            sides++;
+        }
+
+        // The other numbers are only read if a report splits on them, and
+        // are missing if they cannot be read, as in ImportBatch.
+        values[BucketScheme.SOLD_PRICE] = soldPrice;
+        if (bucketed[BucketScheme.LIST_PRICE]) {
+            long listPrice = NumberParser.parseCents(record[Model.ARR_LIST_PRICE]);
+            values[BucketScheme.LIST_PRICE] = listPrice == NumberParser.INVALID ? -1 : listPrice;
+        }
+        if (bucketed[BucketScheme.DAYS_ON_MARKET]) {
+            long days = NumberParser.parseLong(record[Model.ARR_DAYS_ON_MARKET]);
+            values[BucketScheme.DAYS_ON_MARKET] = days < 0 || days > Integer.MAX_VALUE ? -1 : days;
+        }
+
+        int[] matches = matcher.getMatches();
+        for (int k = 0; k < n; k++) {
+            BucketScheme scheme = schemes.get(matches[k]);
+            Model.addSale(stats[matches[k]][offset], soldPrice,
+                    scheme.getBucket(values[scheme.getColumn()]), sides);
+        }
+    }
+
+    /**
+     * Adds the stats of another tally for the same reports to this one.
+     *
+     * @param other The tally to add.
+     */
+    public void addAll(ReportTally other) {
+        for (int i = 0; i < reports.size(); i++) {
+            for (int j = 0; j < stats[i].length; j++) {
+                for (int k = 0; k < stats[i][j].length; k++) {
+                    stats[i][j][k] += other.stats[i][j][k];
+                }
+            }
+        }
+    }
+
+    public List<String> getReports() {
+        return reports;
+    }
+
+    /**
+     * Returns the totals of a report over the months the reports cover.
+     *
+     * @param report The index of the report in getReports().
+     * @return The totals.
+     */
+    public MonthlyTotals getTotals(int report) {
+        return new MonthlyTotals(firstTallied, stats[report]);
+    }
+
+    private boolean isCompany(String agency) {
+        Boolean isCompany = companyAgencies.get(agency);
+        if (isCompany == null) {
+            isCompany = agency.contains(company);
+            companyAgencies.put(agency, isCompany);
+        }
+        return isCompany;
+    }
+}
@@ -0,0 +1,321 @@
+package Stats;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compressed set of row numbers, laid out like a Roaring bitmap. Rows are
+ * grouped by their upper 16 bits, and each group of up to 65536 rows is kept
+ * in a container of its own: a sorted array of the lower 16 bits while it
+ * holds at most 4096 rows, and a 65536-bit bitmap once it holds more. Sparse
+ * sets such as the sales of one condo complex take two bytes a row, dense
+ * ones such as a whole county at most one bit a row, and both can be
+ * combined without looking at the rows they do not have.
+ *
+ * A bitmap is filled with add() in ascending row order. Bitmaps returned by
+ * or() and and() may share containers with the bitmaps they were made from,
+ * so they must not be added to.
+ *
+ * @author Christopher Buss
+ */
+public class RowBitmap {
+
+    // Containers with more rows than this are kept as bitmaps.
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    // The upper 16 bits of the rows of each container, ascending.
+    private int[] keys = new int[4];
+    // Each container is a char[] of sorted lower bits or a long[] bitmap.
+    private Object[] containers = new Object[4];
+    private int[] cardinalities = new int[4];
+    private int size;
+    private int cardinality;
+
+    /**
+     * Adds a row. Rows must be added in ascending order.
+     *
+     * @param row The row, larger than every row added so far.
+     */
+    public void add(int row) {
+        int key = row >>> 16;
+        char low = (char) row;
+        if (size == 0 || keys[size - 1] != key) {
+            append(key, new char[4], 0);
+        }
+
+        int i = size - 1;
+        int n = cardinalities[i];
+        if (containers[i] instanceof char[]) {
+            char[] array = (char[]) containers[i];
+            if (n == ARRAY_LIMIT) {
+                long[] words = toBitmap(array, n);
+                words[low >>> 6] |= 1L << low;
+                containers[i] = words;
+            } else {
+                if (n == array.length) {
+                    array = Arrays.copyOf(array, n * 2);
+                    containers[i] = array;
+                }
+                array[n] = low;
+            }
+        } else {
+            ((long[]) containers[i])[low >>> 6] |= 1L << low;
+        }
+        cardinalities[i]++;
+        cardinality++;
+    }
+
+    /**
+     * Returns the number of rows in the set.
+     *
+     * @return The number of rows.
+     */
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Returns the rows in the set that fall in a range.
+     *
+     * @param from The first row of the range.
+     * @param to The row after the last row of the range.
+     * @return The rows in ascending order.
+     */
+    public int[] getRows(int from, int to) {
+        if (from >= to) {
+            return new int[0];
+        }
+        int[] rows = new int[16];
+        int count = 0;
+        int firstKey = from >>> 16;
+        int lastKey = (to - 1) >>> 16;
+        for (int i = findKey(firstKey); i < size && keys[i] <= lastKey; i++) {
+            int base = keys[i] << 16;
+            if (containers[i] instanceof char[]) {
+                char[] array = (char[]) containers[i];
+                for (int k = 0; k < cardinalities[i]; k++) {
+                    int row = base | array[k];
+                    if (row >= from && row < to) {
+                        if (count == rows.length) {
+                            rows = Arrays.copyOf(rows, count * 2);
+                        }
+                        rows[count++] = row;
+                    }
+                }
+            } else {
+                long[] words = (long[]) containers[i];
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        int row = base | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                        if (row >= from && row < to) {
+                            if (count == rows.length) {
+                                rows = Arrays.copyOf(rows, count * 2);
+                            }
+                            rows[count++] = row;
+                        }
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Returns the rows that are in any of the bitmaps.
+     *
+     * @param bitmaps The bitmaps to combine.
+     * @return The union.
+     */
+    public static RowBitmap or(List<RowBitmap> bitmaps) {
+        if (bitmaps.size() == 1) {
+            return bitmaps.get(0);
+        }
+
+        // Go through the keys of all of the bitmaps in ascending order,
+        // combining the containers that share each key.
+        RowBitmap union = new RowBitmap();
+        int[] next = new int[bitmaps.size()];
+        while (true) {
+            int key = Integer.MAX_VALUE;
+            for (int b = 0; b < next.length; b++) {
+                RowBitmap bitmap = bitmaps.get(b);
+                if (next[b] < bitmap.size) {
+                    key = Math.min(key, bitmap.keys[next[b]]);
+                }
+            }
+            if (key == Integer.MAX_VALUE) {
+                return union;
+            }
+
+            long[] words = new long[BITMAP_WORDS];
+            for (int b = 0; b < next.length; b++) {
+                RowBitmap bitmap = bitmaps.get(b);
+                if (next[b] < bitmap.size && bitmap.keys[next[b]] == key) {
+                    bitmap.orInto(next[b], words);
+                    next[b]++;
+                }
+            }
+            union.appendBitmap(key, words);
+        }
+    }
+
+    /**
+     * Returns the rows that are in this bitmap and another.
+     *
+     * @param other The other bitmap.
+     * @return The intersection.
+     */
+    public RowBitmap and(RowBitmap other) {
+        RowBitmap intersection = new RowBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Object a = containers[i];
+                Object b = other.containers[j];
+                if (a instanceof long[] && b instanceof long[]) {
+                    long[] words = new long[BITMAP_WORDS];
+                    for (int w = 0; w < BITMAP_WORDS; w++) {
+                        words[w] = ((long[]) a)[w] & ((long[]) b)[w];
+                    }
+                    intersection.appendBitmap(keys[i], words);
+                } else if (a instanceof char[] && b instanceof char[]) {
+                    intersection.appendArray(keys[i], intersect(
+                            (char[]) a, cardinalities[i], (char[]) b, other.cardinalities[j]));
+                } else if (a instanceof char[]) {
+                    intersection.appendArray(keys[i],
+                            filter((char[]) a, cardinalities[i], (long[]) b));
+                } else {
+                    intersection.appendArray(keys[i],
+                            filter((char[]) b, other.cardinalities[j], (long[]) a));
+                }
+                i++;
+                j++;
+            }
+        }
+        return intersection;
+    }
+
+    /**
+     * Sets the bits of a container in a 65536-bit bitmap.
+     */
+    private void orInto(int i, long[] words) {
+        if (containers[i] instanceof char[]) {
+            char[] array = (char[]) containers[i];
+            for (int k = 0; k < cardinalities[i]; k++) {
+                words[array[k] >>> 6] |= 1L << array[k];
+            }
+        } else {
+            long[] bits = (long[]) containers[i];
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                words[w] |= bits[w];
+            }
+        }
+    }
+
+    /**
+     * Adds a container made from a bitmap, as an array if it is small
+     * enough. Empty containers are left out.
+     */
+    private void appendBitmap(int key, long[] words) {
+        int n = 0;
+        for (long word : words) {
+            n += Long.bitCount(word);
+        }
+        if (n > ARRAY_LIMIT) {
+            append(key, words, n);
+            return;
+        }
+        char[] array = new char[n];
+        int k = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                array[k++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        appendArray(key, array);
+    }
+
+    /**
+     * Adds an array container. Empty containers are left out.
+     */
+    private void appendArray(int key, char[] array) {
+        if (array.length > 0) {
+            append(key, array, array.length);
+        }
+    }
+
+    private void append(int key, Object container, int n) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+            cardinalities = Arrays.copyOf(cardinalities, size * 2);
+        }
+        keys[size] = key;
+        containers[size] = container;
+        cardinalities[size] = n;
+        size++;
+        cardinality += n;
+    }
+
+    /**
+     * Returns the first container whose key is at least the given key.
+     */
+    private int findKey(int key) {
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        return i < 0 ? -i - 1 : i;
+    }
+
+    private static long[] toBitmap(char[] array, int n) {
+        long[] words = new long[BITMAP_WORDS];
+        for (int k = 0; k < n; k++) {
+            words[array[k] >>> 6] |= 1L << array[k];
+        }
+        return words;
+    }
+
+    /**
+     * Returns the values in both sorted arrays.
+     */
+    private static char[] intersect(char[] a, int aLength, char[] b, int bLength) {
+        char[] result = new char[Math.min(aLength, bLength)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < aLength && j < bLength) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Returns the values of the sorted array whose bits are set.
+     */
+    private static char[] filter(char[] array, int length, long[] words) {
+        char[] result = new char[length];
+        int n = 0;
+        for (int k = 0; k < length; k++) {
+            if ((words[array[k] >>> 6] & (1L << array[k])) != 0) {
+                result[n++] = array[k];
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+}
@@ -0,0 +1,58 @@
+package Stats;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * The rules of one report, compiled against the dictionaries of the imported
+ * Dataset. Each "where" with "equals" becomes the set of dictionary codes it
+ * accepts, found with one lookup per "equals" rather than by comparing the
+ * text of every value. A "where" without "equals" accepts everything and is
+ * left out.
+ *
+ * An "equals" that no entry has is dropped, as it can never match. If none
+ * of the "equals" of a "where" is in the Dataset, the report matches nothing.
+ *
+ * @author Christopher Buss
+ */
+public class RulePredicate {
+
+    // The codes each "where" accepts, indexed by "where"; null if the
+    // "where" has no "equals".
+    private final BitSet[] codes = new BitSet[Model.NUM_OF_OPTIONS];
+
+    /**
+     * Compiles the rules of a report.
+     *
+     * @param arrArr The "equals" of the report, indexed by "where".
+     * @param dataset The imported entries.
+     */
+    public RulePredicate(ArrayList<ArrayList<String>> arrArr, Dataset dataset) {
+        for (int where = 0; where < Model.NUM_OF_OPTIONS; where++) {
+            ArrayList<String> arrRules = arrArr.get(where);
+            if (arrRules.isEmpty()) {
+                continue;
+            }
+
+            ValueDictionary values = dataset.getDictionary(where);
+            codes[where] = new BitSet(values.size());
+            for (String value : arrRules) {
+                int code = values.getCode(value);
+                if (code != -1) {
+                    codes[where].set(code);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the codes a "where" accepts.
+     *
+     * @param where The "where".
+     * @return The codes, or null if the "where" has no "equals" and so
+     * accepts every value.
+     */
+    public BitSet getCodes(int where) {
+        return codes[where];
+    }
+}
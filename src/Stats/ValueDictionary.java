@@ -0,0 +1,71 @@
+package Stats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Maps the distinct values of a column to small int codes and back. Codes are
+ * handed out in the order values are first seen, starting at 0.
+ *
+ * @author Christopher Buss
+ */
+public class ValueDictionary {
+
+    private final HashMap<String, Integer> codes = new HashMap<>();
+    private final ArrayList<String> values = new ArrayList<>();
+
+    /**
+     * Returns the code for the given value, adding the value if it has not
+     * been seen before.
+     *
+     * @param value The value to encode.
+     * @return The value's code.
+     */
+    public int encode(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code for the given value without adding it.
+     *
+     * @param value The value to look up.
+     * @return The value's code, or -1 if it has never been seen.
+     */
+    public int getCode(String value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Returns the value that was given the code.
+     *
+     * @param code The code to decode.
+     * @return The value.
+     */
+    public String getValue(int code) {
+        return values.get(code);
+    }
+
+    /**
+     * Returns the number of distinct values.
+     *
+     * @return The number of codes handed out so far.
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Removes every value.
+     */
+    public void clear() {
+        codes.clear();
+        values.clear();
+    }
+}